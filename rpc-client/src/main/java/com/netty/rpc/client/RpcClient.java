@@ -5,6 +5,10 @@ import com.netty.rpc.client.proxy.RpcService;
 import com.netty.rpc.client.proxy.ObjectProxy;
 import com.netty.rpc.client.connect.ConnectionManager;
 import com.netty.rpc.client.discovery.ServiceDiscovery;
+import com.netty.rpc.client.handler.RpcFuture;
+import com.netty.rpc.config.RpcConfig;
+import com.netty.rpc.util.ServiceUtil;
+import com.netty.rpc.util.ThreadPoolUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -14,9 +18,16 @@ import org.springframework.context.ApplicationContextAware;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  RPC Client（Create RPC proxy）
@@ -26,8 +37,44 @@ public class RpcClient implements ApplicationContextAware, DisposableBean {
     private static final Logger logger = LoggerFactory.getLogger(RpcClient.class);
 
     private ServiceDiscovery serviceDiscovery;
+    private static final int OVERFLOW_THREADS = 4;
+    private static final int OVERFLOW_QUEUE_SIZE = 10000;
+    //共享线程池排满时接收回调的线程池；提交回调的通常是IO线程，不能在提交线程上执行。
+    //两个队列合计最多排队11000个回调，这个也满了时拒绝，RpcFuture以RejectedExecutionException通知回调失败
+    private static final ThreadPoolExecutor overflowExecutor = new ThreadPoolExecutor(OVERFLOW_THREADS, OVERFLOW_THREADS,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(OVERFLOW_QUEUE_SIZE), new ThreadFactory() {
+                private final AtomicLong index = new AtomicLong();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "netty-rpc-callback-overflow-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final AtomicLong overflowCount = new AtomicLong();
+    //执行异步回调的共享线程池，队列满时转给overflowExecutor，不会在IO线程上执行回调，overflowExecutor也满时抛出RejectedExecutionException
     private static ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(16, 16,
-            600L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1000));
+            600L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1000), new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Callback pool has been shut down");
+                    }
+                    long count = overflowCount.incrementAndGet();
+                    if (count == 1 || count % 1000 == 0) {
+                        logger.warn("Callback pool is full, {} callbacks handed to the overflow pool, {} waiting there",
+                                count, overflowExecutor.getQueue().size());
+                    }
+                    overflowExecutor.execute(r);
+                }
+            });
+    //默认的回调执行器：pool为共享线程池，direct为直接在IO线程上执行，virtual为每个回调一个虚拟线程
+    private static final Executor callbackExecutor = makeCallbackExecutor(
+            RpcConfig.getString(RpcConfig.CLIENT_CALLBACK_EXECUTOR, "pool"));
+    //每个接口和版本的代理，key为服务key；代理没有调用相关的状态，可以共享，重复创建时直接返回缓存的对象
+    private static final ConcurrentMap<String, ObjectProxy<?, ?>> objectProxyCache = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Object> serviceCache = new ConcurrentHashMap<>();
 
     /**
      *  调用服务发现
@@ -47,12 +94,21 @@ public class RpcClient implements ApplicationContextAware, DisposableBean {
      */
     @SuppressWarnings("unchecked")
     public static <T, P> T createService(Class<T> interfaceClass, String version) {
+        String serviceKey = ServiceUtil.makeServiceKey(interfaceClass.getName(), version);
+        Object service = serviceCache.get(serviceKey);
+        if (service == null) {
 //        Proxy.newProxyInstance三个参数，被代理类的类加载器，类接口数组，处理器handler
-        return (T) Proxy.newProxyInstance(
-                interfaceClass.getClassLoader(),
-                new Class<?>[]{interfaceClass},
-                new ObjectProxy<T, P>(interfaceClass, version)   //new ObjectProxy 处理器
-        );
+            service = Proxy.newProxyInstance(
+                    interfaceClass.getClassLoader(),
+                    new Class<?>[]{interfaceClass},
+                    getObjectProxy(interfaceClass, version)   //ObjectProxy 处理器
+            );
+            Object existing = serviceCache.putIfAbsent(serviceKey, service);
+            if (existing != null) {
+                service = existing;
+            }
+        }
+        return (T) service;
     }
 
     /**
@@ -64,15 +120,59 @@ public class RpcClient implements ApplicationContextAware, DisposableBean {
      * @return
      */
     public static <T, P> RpcService createAsyncService(Class<T> interfaceClass, String version) {
-        return new ObjectProxy<T, P>(interfaceClass, version);  //返回的是一个处理器
+        return getObjectProxy(interfaceClass, version);  //返回的是一个处理器
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, P> ObjectProxy<T, P> getObjectProxy(Class<T> interfaceClass, String version) {
+        String serviceKey = ServiceUtil.makeServiceKey(interfaceClass.getName(), version);
+        ObjectProxy<?, ?> objectProxy = objectProxyCache.get(serviceKey);
+        if (objectProxy == null) {
+            objectProxy = new ObjectProxy<T, P>(interfaceClass, version);
+            ObjectProxy<?, ?> existing = objectProxyCache.putIfAbsent(serviceKey, objectProxy);
+            if (existing != null) {
+                objectProxy = existing;
+            }
+        }
+        return (ObjectProxy<T, P>) objectProxy;
     }
 
     public static void submit(Runnable task) {
         threadPoolExecutor.submit(task);
     }
 
+    private static Executor makeCallbackExecutor(String type) {
+        if ("direct".equalsIgnoreCase(type)) {
+            return RpcFuture.DIRECT_EXECUTOR;
+        }
+        if ("virtual".equalsIgnoreCase(type)) {
+            //回调中可以做阻塞调用（包括同步的RPC调用），阻塞时只挂起虚拟线程
+            Executor executor = ThreadPoolUtil.makeVirtualThreadExecutor("callback");
+            if (executor != null) {
+                return executor;
+            }
+            logger.warn("Virtual threads are not supported by this JVM, use the shared pool for callbacks");
+        }
+        return threadPoolExecutor;
+    }
+
+    /**
+     * RpcFuture回调默认使用的执行器，由rpc.client.callback.executor配置
+     */
+    public static Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * 共享线程池排满后转给overflowExecutor的回调总数（包括overflowExecutor也满了被拒绝的）
+     */
+    public static long getCallbackOverflowCount() {
+        return overflowCount.get();
+    }
+
     public void stop() {
         threadPoolExecutor.shutdown();
+        overflowExecutor.shutdown();
         serviceDiscovery.stop();
         ConnectionManager.getInstance().stop();
     }
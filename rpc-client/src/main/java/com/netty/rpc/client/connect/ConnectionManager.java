@@ -4,15 +4,16 @@ import com.netty.rpc.client.handler.RpcClientHandler;
 import com.netty.rpc.client.handler.RpcClientInitializer;
 import com.netty.rpc.client.route.RpcLoadBalance;
 import com.netty.rpc.client.route.impl.RpcLoadBalanceRoundRobin;
+import com.netty.rpc.config.RpcConfig;
 import com.netty.rpc.protocol.RpcProtocol;
 import com.netty.rpc.protocol.RpcServiceInfo;
+import com.netty.rpc.transport.NettyTransport;
+import com.netty.rpc.util.ServiceUtil;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,11 +33,13 @@ import java.util.concurrent.locks.ReentrantLock;
 public class ConnectionManager {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
 
-    private EventLoopGroup eventLoopGroup = new NioEventLoopGroup(4);
+    private EventLoopGroup eventLoopGroup = NettyTransport.newEventLoopGroup(NettyTransport.clientIoThreads(), "client");  //Linux上优先使用epoll
     private static ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(4, 8,
             600L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1000));
-    //保存连接服务提供者的服务器的节点（也是缓存到本地）
-    private Map<RpcProtocol, RpcClientHandler> connectedServerNodes = new ConcurrentHashMap<>();
+    //保存连接服务提供者的服务器的节点（也是缓存到本地），每个节点可以有多个连接
+    private Map<RpcProtocol, ConnectionPool> connectedServerNodes = new ConcurrentHashMap<>();
+    //路由索引：key为服务，value为提供这个服务的节点数组。只在节点变化时整体重建后替换，每次调用直接读取，不再为每次调用重建服务map
+    private volatile Map<String, ConnectionPool[]> routingIndex = Collections.emptyMap();
     //rpcProtocolSet：客户端本地保存zookeeper上关于服务提供者的服务器的信息
     private CopyOnWriteArraySet<RpcProtocol> rpcProtocolSet = new CopyOnWriteArraySet<>();
 
@@ -45,7 +48,7 @@ public class ConnectionManager {
     private Condition connected = lock.newCondition();  //一个Lock里面可以创建多个Condition实例，实现多路通知
 
     private long waitTimeout = 5000;
-    private RpcLoadBalance loadBalance = new RpcLoadBalanceRoundRobin();  //默认采用轮询策略实现负载均衡
+    private volatile RpcLoadBalance loadBalance = initLoadBalance();  //默认采用轮询策略实现负载均衡，可以在rpc.client.loadbalance中配置
     private volatile boolean isRunning = true;
 
     private ConnectionManager() {
@@ -134,6 +137,15 @@ public class ConnectionManager {
         for (RpcServiceInfo serviceProtocol : rpcProtocol.getServiceInfoList()) {   //查看当前提供服务的服务器存在哪些服务
             logger.info("New service info, name: {}, version: {}", serviceProtocol.getServiceName(), serviceProtocol.getVersion());
         }
+        new ConnectionPool(rpcProtocol, this).connect();
+    }
+
+    /**
+     * 为连接池建立一个新连接，连接建立后分配到eventLoopGroup中的一个EventLoop上
+     * @param pool
+     */
+    void connect(final ConnectionPool pool) {
+        final RpcProtocol rpcProtocol = pool.getRpcProtocol();
 //        InetAddress:类的主要作用是封装IP及端口
         final InetSocketAddress remotePeer = new InetSocketAddress(rpcProtocol.getHost(), rpcProtocol.getPort());
         //使用线程池进行发送请求
@@ -144,8 +156,9 @@ public class ConnectionManager {
                 //主要作用是配置整个 Netty 程序， 串联各个组件
                 Bootstrap b = new Bootstrap();
                 b.group(eventLoopGroup)
-                        .channel(NioSocketChannel.class)
+                        .channel(NettyTransport.channelClass())
                         .handler(new RpcClientInitializer());
+                NettyTransport.configure(b);  //TCP参数
 
                 ChannelFuture channelFuture = b.connect(remotePeer);  //连接到服务提供者的服务器
                 channelFuture.addListener(new ChannelFutureListener() {
@@ -155,10 +168,17 @@ public class ConnectionManager {
                             logger.info("Successfully connect to remote server, remote peer = " + remotePeer);
 //                            ChannelFuture的get()方法获取异步操作的结果
                             RpcClientHandler handler = channelFuture.channel().pipeline().get(RpcClientHandler.class);
-                            connectedServerNodes.put(rpcProtocol, handler);
                             handler.setRpcProtocol(rpcProtocol);
+                            if (!pool.connected(handler)) {
+                                handler.close();  //节点已经被移除
+                                return;
+                            }
+                            if (connectedServerNodes.putIfAbsent(rpcProtocol, pool) == null) {
+                                rebuildRoutingIndex();
+                            }
                             signalAvailableHandler();   //处理完了，就唤醒其他线程
                         } else {
+                            pool.connectFailed();
                             logger.error("Can not connect to remote server, remote peer = " + remotePeer);
                         }
                     }
@@ -201,6 +221,17 @@ public class ConnectionManager {
      * @throws Exception
      */
     public RpcClientHandler chooseHandler(String serviceKey) throws Exception {
+        return chooseHandler(serviceKey, null);
+    }
+
+    /**
+     *   从包含serviceKey服务的服务器中，选择处理器
+     * @param serviceKey
+     * @param hashKey 路由key（@RpcHashKey标记的参数值），没有时为null
+     * @return
+     * @throws Exception
+     */
+    public RpcClientHandler chooseHandler(String serviceKey, Object hashKey) throws Exception {
         int size = connectedServerNodes.values().size();  //查看有没有处理器
         while (isRunning && size <= 0) {   //如果没有处理器，那么等一会
             try {
@@ -210,8 +241,9 @@ public class ConnectionManager {
                 logger.error("Waiting for available service is interrupted!", e);
             }
         }
-        RpcProtocol rpcProtocol = loadBalance.route(serviceKey, connectedServerNodes);
-        RpcClientHandler handler = connectedServerNodes.get(rpcProtocol);  //获得处理器
+        ConnectionPool[] providers = routingIndex.get(serviceKey);
+        ConnectionPool pool = hashKey != null ? loadBalance.route(serviceKey, providers, hashKey) : loadBalance.route(serviceKey, providers);
+        RpcClientHandler handler = pool.choose();  //获得处理器，选择节点上最空闲的连接
         if (handler != null) {
             return handler;
         } else {
@@ -220,18 +252,70 @@ public class ConnectionManager {
     }
 
     private void removeAndCloseHandler(RpcProtocol rpcProtocol) {
-        RpcClientHandler handler = connectedServerNodes.get(rpcProtocol);
-        if (handler != null) {
-            handler.close();
+        ConnectionPool pool = connectedServerNodes.remove(rpcProtocol);
+        if (pool != null) {
+            pool.close();
+            rebuildRoutingIndex();
         }
-        connectedServerNodes.remove(rpcProtocol);
         rpcProtocolSet.remove(rpcProtocol);
     }
 
-    public void removeHandler(RpcProtocol rpcProtocol) {
-        rpcProtocolSet.remove(rpcProtocol);
-        connectedServerNodes.remove(rpcProtocol);
+    /**
+     * 连接断开时调用，节点上没有其他连接时移除这个节点
+     * @param rpcProtocol
+     * @param handler
+     */
+    public void removeHandler(RpcProtocol rpcProtocol, RpcClientHandler handler) {
+        ConnectionPool pool = connectedServerNodes.get(rpcProtocol);
         logger.info("Remove one connection, host: {}, port: {}", rpcProtocol.getHost(), rpcProtocol.getPort());
+        if (pool != null && !pool.remove(handler)) {
+            return;
+        }
+        rpcProtocolSet.remove(rpcProtocol);
+        if (pool != null) {
+            pool.close();
+            if (connectedServerNodes.remove(rpcProtocol, pool)) {
+                rebuildRoutingIndex();
+            }
+        }
+    }
+
+    /**
+     * 节点加入或移除后，根据connectedServerNodes重建路由索引
+     */
+    private synchronized void rebuildRoutingIndex() {
+        Map<String, List<ConnectionPool>> serviceMap = new HashMap<>();
+        for (Map.Entry<RpcProtocol, ConnectionPool> entry : connectedServerNodes.entrySet()) {
+            //一个节点上的每个服务
+            for (RpcServiceInfo serviceInfo : entry.getKey().getServiceInfoList()) {
+                String serviceKey = ServiceUtil.makeServiceKey(serviceInfo.getServiceName(), serviceInfo.getVersion());
+                List<ConnectionPool> providers = serviceMap.get(serviceKey);
+                if (providers == null) {
+                    providers = new ArrayList<>();
+                    serviceMap.put(serviceKey, providers);
+                }
+                providers.add(entry.getValue());
+            }
+        }
+        Map<String, ConnectionPool[]> index = new HashMap<>(serviceMap.size() * 2);
+        for (Map.Entry<String, List<ConnectionPool>> entry : serviceMap.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray(new ConnectionPool[0]));
+        }
+        this.routingIndex = Collections.unmodifiableMap(index);
+    }
+
+    public void setLoadBalance(RpcLoadBalance loadBalance) {
+        this.loadBalance = loadBalance;
+    }
+
+    private static RpcLoadBalance initLoadBalance() {
+        String name = RpcConfig.getString(RpcConfig.CLIENT_LOADBALANCE, "roundrobin");
+        RpcLoadBalance loadBalance = RpcLoadBalance.get(name);
+        if (loadBalance == null) {
+            logger.warn("Unknown load balance {}, use round robin", name);
+            loadBalance = new RpcLoadBalanceRoundRobin();
+        }
+        return loadBalance;
     }
 
     public void stop() {
@@ -0,0 +1,166 @@
+package com.netty.rpc.client.connect;
+
+import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.route.PeakEwma;
+import com.netty.rpc.config.RpcConfig;
+import com.netty.rpc.protocol.RpcProtocol;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 到一个服务提供者的多个连接。
+ * 只有一个连接时，所有请求都经过同一个Channel和同一个EventLoop，服务端核数很多时吞吐量被这一个连接限制。
+ * 连接建立时分配到客户端EventLoopGroup的不同EventLoop上；每次选择等待响应的请求最少的连接。
+ * 开始只建立rpc.client.connections.min个连接，最空闲的连接上等待的请求也达到rpc.client.connections.grow.threshold时，
+ * 再异步建立新连接，直到rpc.client.connections.max个。
+ */
+public class ConnectionPool {
+    private static final int MIN_CONNECTIONS = Math.max(1, RpcConfig.getInt(RpcConfig.CLIENT_CONNECTIONS_MIN, 1));
+    private static final int MAX_CONNECTIONS = Math.max(MIN_CONNECTIONS, RpcConfig.getInt(RpcConfig.CLIENT_CONNECTIONS_MAX, 4));
+    private static final int GROW_THRESHOLD = Math.max(1, RpcConfig.getInt(RpcConfig.CLIENT_CONNECTIONS_GROW_THRESHOLD, 64));
+
+    private final RpcProtocol rpcProtocol;
+    private final ConnectionManager connectionManager;
+    //已经建立的连接，修改时复制
+    private volatile RpcClientHandler[] handlers = new RpcClientHandler[0];
+    private final AtomicInteger connecting = new AtomicInteger(0);  //正在建立的连接数
+    private volatile boolean closed = false;
+    //节点的响应时间，所有连接共用
+    private final PeakEwma peakEwma = new PeakEwma();
+
+    ConnectionPool(RpcProtocol rpcProtocol, ConnectionManager connectionManager) {
+        this.rpcProtocol = rpcProtocol;
+        this.connectionManager = connectionManager;
+    }
+
+    public RpcProtocol getRpcProtocol() {
+        return rpcProtocol;
+    }
+
+    public PeakEwma getPeakEwma() {
+        return peakEwma;
+    }
+
+    /**
+     * 建立初始的连接
+     */
+    void connect() {
+        for (int i = 0; i < MIN_CONNECTIONS; i++) {
+            if (reserve()) {
+                connectionManager.connect(this);
+            }
+        }
+    }
+
+    /**
+     * 选择等待响应的请求最少的连接，都比较忙时再建立一个连接
+     * @return 没有可用的连接时返回null
+     */
+    public RpcClientHandler choose() {
+        RpcClientHandler[] handlers = this.handlers;
+        int size = handlers.length;
+        if (size == 0) {
+            return null;
+        }
+        //从随机位置开始比较，请求数相同时分散到不同的连接
+        int start = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        RpcClientHandler best = handlers[start];
+        int bestCount = best.getInFlightCount();
+        for (int i = 1; i < size && bestCount > 0; i++) {
+            RpcClientHandler handler = handlers[(start + i) % size];
+            int count = handler.getInFlightCount();
+            if (count < bestCount) {
+                best = handler;
+                bestCount = count;
+            }
+        }
+        if (bestCount >= GROW_THRESHOLD && reserve()) {
+            connectionManager.connect(this);
+        }
+        return best;
+    }
+
+    /**
+     * 占用一个连接名额，连接数（含正在建立的）达到上限时返回false
+     */
+    private boolean reserve() {
+        for (; ; ) {
+            int current = connecting.get();
+            if (closed || handlers.length + current >= MAX_CONNECTIONS) {
+                return false;
+            }
+            if (connecting.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 连接建立成功
+     * @return 连接池已经关闭时返回false，调用方需要关闭这个连接
+     */
+    synchronized boolean connected(RpcClientHandler handler) {
+        connecting.decrementAndGet();
+        if (closed) {
+            return false;
+        }
+        handler.setPeakEwma(peakEwma);
+        RpcClientHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+        newHandlers[handlers.length] = handler;
+        handlers = newHandlers;
+        return true;
+    }
+
+    /**
+     * 连接建立失败
+     */
+    void connectFailed() {
+        connecting.decrementAndGet();
+    }
+
+    /**
+     * 移除一个断开的连接
+     * @return 是否已经没有可用的连接（包括正在建立的）
+     */
+    synchronized boolean remove(RpcClientHandler handler) {
+        RpcClientHandler[] handlers = this.handlers;
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] == handler) {
+                RpcClientHandler[] newHandlers = new RpcClientHandler[handlers.length - 1];
+                System.arraycopy(handlers, 0, newHandlers, 0, i);
+                System.arraycopy(handlers, i + 1, newHandlers, i, handlers.length - i - 1);
+                this.handlers = newHandlers;
+                break;
+            }
+        }
+        return this.handlers.length == 0 && connecting.get() == 0;
+    }
+
+    /**
+     * 节点上所有连接等待响应的请求数之和
+     */
+    public int getInFlightCount() {
+        int count = 0;
+        for (RpcClientHandler handler : handlers) {
+            count += handler.getInFlightCount();
+        }
+        return count;
+    }
+
+    public int size() {
+        return handlers.length;
+    }
+
+    /**
+     * 关闭所有连接，之后建立成功的连接也会被关闭
+     */
+    synchronized void close() {
+        closed = true;
+        for (RpcClientHandler handler : handlers) {
+            handler.close();
+        }
+        handlers = new RpcClientHandler[0];
+    }
+}
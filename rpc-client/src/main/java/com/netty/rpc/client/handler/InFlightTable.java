@@ -0,0 +1,229 @@
+package com.netty.rpc.client.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 一个连接上等待响应的请求表，常见情况下替代 ConcurrentHashMap<Long, RpcFuture>。
+ * 请求id是每个连接单调递增的long，直接用 id & (容量 - 1) 作为槽位下标，放入和取出都是对槽位的CAS，
+ * 不为每个请求分配map节点，也不需要对key装箱和计算hash；取出时比较槽位中请求的id，防止取到别的请求。
+ * 槽位被还在等待的更早请求占用时（在途请求的id跨度超过容量，例如一个很慢的请求），新请求放入溢出map。
+ * 代价是这部分请求又要装箱和分配map节点，所以溢出map只用于少数冲突：溢出的请求超过容量的1/16时容量翻倍，
+ * 扩容时溢出的请求尽量迁回槽位。一个卡住的请求每隔容量个请求才冲突一次，冲突的请求很快取走，不会引起扩容。
+ * 除此之外容量只由等待的请求数决定：超过容量的3/4时翻倍，不超过1/8且没有溢出的请求时减半，但不小于初始容量。
+ * 调整容量时持有锁，把旧表每个槽位标记为MOVED后迁移到新表，遇到MOVED的线程等扩容结束后到新表中重试；
+ * 缩容时在新表中冲突的请求放入溢出map。
+ */
+public class InFlightTable {
+    private static final int MAX_CAPACITY = 1 << 24;
+    //扩容时旧表中已迁移的槽位
+    private static final RpcFuture MOVED = new RpcFuture(null);
+
+    private volatile AtomicReferenceArray<RpcFuture> slots;
+    //槽位冲突的请求
+    private final ConcurrentHashMap<Long, RpcFuture> overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Object resizeLock = new Object();
+    private final int minCapacity;
+
+    public InFlightTable(int initialCapacity) {
+        int capacity = 1;
+        while (capacity < initialCapacity && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        this.minCapacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 放入一个请求，requestId必须已经设置到rpcFuture的请求中
+     */
+    public void put(long requestId, RpcFuture rpcFuture) {
+        for (; ; ) {
+            AtomicReferenceArray<RpcFuture> slots = this.slots;
+            int index = index(requestId, slots);
+            RpcFuture current = slots.get(index);
+            if (current == null) {
+                if (slots.compareAndSet(index, null, rpcFuture)) {
+                    break;
+                }
+            } else if (current == MOVED) {
+                awaitResize();
+            } else {
+                //槽位被还在等待的更早请求占用
+                overflow.put(requestId, rpcFuture);
+                int size = this.size.incrementAndGet();
+                if (overflow.size() > (slots.length() >> 4) && slots.length() < MAX_CAPACITY) {
+                    resize(slots, slots.length() << 1);  //冲突太多
+                } else {
+                    growIfFull(size);
+                }
+                return;
+            }
+        }
+        growIfFull(this.size.incrementAndGet());
+    }
+
+    private void growIfFull(int size) {
+        AtomicReferenceArray<RpcFuture> slots = this.slots;
+        if (size > slots.length() - (slots.length() >> 2) && slots.length() < MAX_CAPACITY) {
+            resize(slots, slots.length() << 1);
+        }
+    }
+
+    /**
+     * 取出并移除请求，不存在（已经完成、超时或id不匹配）时返回null
+     */
+    public RpcFuture remove(long requestId) {
+        return removeSlot(requestId, null);
+    }
+
+    /**
+     * 只有表中的请求就是rpcFuture时才移除
+     * @return 是否移除成功
+     */
+    public boolean remove(long requestId, RpcFuture rpcFuture) {
+        return removeSlot(requestId, rpcFuture) != null;
+    }
+
+    private RpcFuture removeSlot(long requestId, RpcFuture expected) {
+        RpcFuture removed = null;
+        for (; ; ) {
+            AtomicReferenceArray<RpcFuture> slots = this.slots;
+            int index = index(requestId, slots);
+            RpcFuture current = slots.get(index);
+            if (current == MOVED) {
+                awaitResize();
+                continue;
+            }
+            if (current == null || idOf(current) != requestId) {
+                //不在槽位中时可能在溢出map中
+                if (expected == null) {
+                    removed = overflow.remove(requestId);
+                } else if (overflow.remove(requestId, expected)) {
+                    removed = expected;
+                }
+                if (removed == null && slots.get(index) == MOVED) {
+                    continue;  //扩容时溢出的请求可能刚迁回新表的槽位
+                }
+                break;
+            }
+            if (expected != null && current != expected) {
+                return null;
+            }
+            if (slots.compareAndSet(index, current, null)) {
+                removed = current;
+                break;
+            }
+        }
+        if (removed != null) {
+            this.size.decrementAndGet();
+            //并发取出时最后几次检查可能都看到较大的size，所以一直减半到满足条件为止
+            AtomicReferenceArray<RpcFuture> slots;
+            while (this.size.get() <= ((slots = this.slots).length() >> 3) && slots.length() > minCapacity
+                    && overflow.isEmpty()) {
+                resize(slots, slots.length() >> 1);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 移除所有请求，连接断开时使用
+     */
+    public List<RpcFuture> removeAll() {
+        List<RpcFuture> removed = new ArrayList<>();
+        AtomicReferenceArray<RpcFuture> slots = this.slots;
+        for (int i = 0; i < slots.length(); i++) {
+            RpcFuture current = slots.get(i);
+            if (current != null && current != MOVED) {
+                RpcFuture rpcFuture = remove(idOf(current));
+                if (rpcFuture != null) {
+                    removed.add(rpcFuture);
+                }
+            }
+        }
+        for (Long requestId : overflow.keySet()) {
+            RpcFuture rpcFuture = remove(requestId);
+            if (rpcFuture != null) {
+                removed.add(rpcFuture);
+            }
+        }
+        if (this.slots != slots) {
+            //遍历时调整了容量
+            removed.addAll(removeAll());
+        }
+        return removed;
+    }
+
+    /**
+     * 等待响应的请求数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    private void resize(AtomicReferenceArray<RpcFuture> oldSlots, int capacity) {
+        synchronized (resizeLock) {
+            if (this.slots != oldSlots) {
+                return;  //其他线程已经调整过容量
+            }
+            AtomicReferenceArray<RpcFuture> newSlots = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < oldSlots.length(); i++) {
+                for (; ; ) {
+                    RpcFuture current = oldSlots.get(i);
+                    if (current == null) {
+                        if (oldSlots.compareAndSet(i, null, MOVED)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    //先标记为MOVED再放入新表，取这个请求的线程会等扩容结束后重试，不会在溢出map中提前看到它
+                    if (!oldSlots.compareAndSet(i, current, MOVED)) {
+                        continue;  //被其他线程取走了，重试
+                    }
+                    //翻倍后旧表中不同槽位的请求在新表中不会冲突，减半后可能冲突，冲突的放入溢出map
+                    long requestId = idOf(current);
+                    int index = index(requestId, newSlots);
+                    if (newSlots.get(index) == null) {
+                        newSlots.set(index, current);
+                    } else {
+                        overflow.put(requestId, current);
+                    }
+                    break;
+                }
+            }
+            //旧表的槽位都已经是MOVED，取溢出请求没取到的线程会看到MOVED后到新表中重试
+            for (Map.Entry<Long, RpcFuture> entry : overflow.entrySet()) {
+                RpcFuture current = entry.getValue();
+                int index = index(entry.getKey(), newSlots);
+                if (newSlots.get(index) == null && overflow.remove(entry.getKey(), current)) {
+                    newSlots.set(index, current);
+                }
+            }
+            this.slots = newSlots;
+        }
+    }
+
+    private void awaitResize() {
+        synchronized (resizeLock) {
+            //扩容结束后锁才会释放
+        }
+    }
+
+    private static int index(long requestId, AtomicReferenceArray<RpcFuture> slots) {
+        return (int) (requestId & (slots.length() - 1));
+    }
+
+    private static long idOf(RpcFuture rpcFuture) {
+        return rpcFuture.getRequest().getRequestId();
+    }
+}
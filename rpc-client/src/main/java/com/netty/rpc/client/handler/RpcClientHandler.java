@@ -1,63 +1,116 @@
 package com.netty.rpc.client.handler;
 
 import com.netty.rpc.client.connect.ConnectionManager;
+import com.netty.rpc.client.route.PeakEwma;
 import com.netty.rpc.codec.Beat;
+import com.netty.rpc.codec.RpcEncoder;
+import com.netty.rpc.codec.RpcHandshake;
 import com.netty.rpc.codec.RpcRequest;
 import com.netty.rpc.codec.RpcResponse;
+import com.netty.rpc.codec.WriteQueue;
+import com.netty.rpc.compress.Compressor;
+import com.netty.rpc.config.RpcConfig;
+import com.netty.rpc.context.RpcContext;
+import com.netty.rpc.exception.RpcException;
+import com.netty.rpc.exception.RpcTimeoutException;
 import com.netty.rpc.protocol.RpcProtocol;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketAddress;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *      RpcClientHandler 客户端处理器
  *  *      使用 RpcClientHandler 来处理 RPC 响应，只需扩展 Netty 的 SimpleChannelInboundHandler 抽象类即可
  *  *  自定义处理类  实现其userEventTriggered()方法，在出现超时事件时会被触发
  */
-public class RpcClientHandler extends SimpleChannelInboundHandler<RpcResponse> {
+public class RpcClientHandler extends SimpleChannelInboundHandler<Object> {
     private static final Logger logger = LoggerFactory.getLogger(RpcClientHandler.class);
-    //key为请求的id，value为RpcFuture对象
-    private ConcurrentHashMap<String, RpcFuture> pendingRPC = new ConcurrentHashMap<>();
+    //请求超时用的时间轮，所有连接共享
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("netty-rpc-timeout", true), 10, TimeUnit.MILLISECONDS);
+    //默认的请求超时时间，可以在rpc.properties中按方法覆盖，见ObjectProxy
+    public static final int DEFAULT_REQUEST_TIMEOUT = RpcConfig.getInt(RpcConfig.REQUEST_TIMEOUT, 10000);
+
+    //每个连接等待响应的请求表的初始容量
+    private static final int INFLIGHT_CAPACITY = RpcConfig.getInt(RpcConfig.CLIENT_INFLIGHT_CAPACITY, 1024);
+
+    //等待响应的请求，按请求的id放在槽位数组中
+    private final InFlightTable pendingRPC = new InFlightTable(INFLIGHT_CAPACITY);
+    //每个连接单调递增的请求id，写在帧头中用于关联请求和响应
+    private final AtomicLong requestIdGenerator = new AtomicLong(0);
+    //握手时服务端下发的方法id，key为ServiceUtil.makeMethodKey生成的方法key；握手完成前为空，请求仍按方法名发送
+    private volatile Map<String, Integer> methodIds = Collections.emptyMap();
     private volatile Channel channel;
+    private volatile WriteQueue writeQueue;  //多个调用线程的请求合并写出
     private SocketAddress remotePeer;  //服务提供者的套接字
     private RpcProtocol rpcProtocol;   //服务提供者
+    private volatile PeakEwma peakEwma;  //服务提供者的响应时间，收到响应时更新
 
 //    当客户端与服务端连接建立时调用
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         super.channelActive(ctx);
         this.remotePeer = this.channel.remoteAddress();
+        //连接建立后先握手，获取服务端所有方法的id，并提出要使用的压缩方式
+        RpcHandshake handshake = new RpcHandshake();
+        Compressor compressor = Compressor.get(RpcConfig.getString(RpcConfig.COMPRESS_TYPE, "none"));
+        handshake.setCompressType(compressor != null ? compressor.getId() : Compressor.NONE);
+        ctx.writeAndFlush(handshake);
     }
 
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
         super.channelRegistered(ctx);
         this.channel = ctx.channel();
+        this.writeQueue = new WriteQueue(ctx.channel());
     }
 
 
 
     /**
      * //    从客户端接收到数据（响应）时调用，所以有响应数据了，就将数据调用 rpcFuture.done(response)进行处理;
+     * 握手响应则保存服务端下发的方法id
      * @param ctx
-     * @param response
+     * @param msg
      * @throws Exception
      */
     @Override
-    public void channelRead0(ChannelHandlerContext ctx, RpcResponse response) throws Exception {
-        String requestId = response.getRequestId();
+    public void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RpcHandshake) {
+            RpcHandshake handshake = (RpcHandshake) msg;
+            Map<String, Integer> ids = handshake.getMethodIds();
+            this.methodIds = ids != null ? ids : Collections.<String, Integer>emptyMap();
+            //服务端同意的压缩方式，之后的请求按此压缩
+            Compressor compressor = Compressor.get(handshake.getCompressType());
+            ctx.pipeline().get(RpcEncoder.class).setCompressor(compressor);
+            logger.info("Client receive handshake with {} methods from {}, compress: {}", this.methodIds.size(), remotePeer,
+                    compressor != null ? compressor.getName() : "none");
+            return;
+        }
+        if (!(msg instanceof RpcResponse)) {
+            logger.warn("Client read unknown message: " + msg);
+            return;
+        }
+        RpcResponse response = (RpcResponse) msg;
+        long requestId = response.getRequestId();
         logger.debug("Receive response: " + requestId);
-        RpcFuture rpcFuture = pendingRPC.get(requestId);  //从队列中得到服务提供者返回的响应结果
+        RpcFuture rpcFuture = pendingRPC.remove(requestId);  //从队列中得到服务提供者返回的响应结果
         if (rpcFuture != null) {
-            pendingRPC.remove(requestId);
             rpcFuture.done(response);     //获得数据之后
         } else {
-            logger.warn("Can not get pending response for request id: " + requestId);
+            logger.warn("Can not get pending response for request id: " + requestId + ", maybe timed out");
         }
     }
 
@@ -71,52 +124,107 @@ public class RpcClientHandler extends SimpleChannelInboundHandler<RpcResponse> {
         channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
     }
 
+    /**
+     * 按默认超时时间发送请求
+     */
+    public RpcFuture sendRequest(RpcRequest request) {
+        return sendRequest(request, DEFAULT_REQUEST_TIMEOUT);
+    }
+
     /**
      * 向服务器（服务提供者）发送请求，并返回响应结果
      * 由代理类调用这个方法
-     *   //为什么响应结果怎么封装进去RpcFuture（自定义的future）？
-     *   因为上面的channelRead0方法，会在客户端接收到响应数据之后执行，方法体中把响应封装到RpcFuture中去了
-     *  其实我觉得可以直接通过channelFuture返回结果的，但是不知道为啥还要自定义future
+     *   响应由上面的channelRead0方法在收到响应数据之后封装到RpcFuture中。
+     *   发送是异步的：调用线程只把请求放入写队列就返回，不等待写完，多个请求可以在同一个连接上同时进行，
+     *   并由写队列合并成一批写出、flush一次；写失败时通过监听器把RpcFuture置为失败。
+     *   同时在时间轮上注册超时任务，到期还没有响应就从pendingRPC中移除并以RpcTimeoutException失败。
+     *   超时时间随请求发送给服务端，服务端不再执行已经超时的请求；在服务方法中发起的调用，超时时间不超过当前请求剩余的时间
      * @param request
+     * @param requestTimeout 超时时间，毫秒
      * @return
      */
-    public RpcFuture sendRequest(RpcRequest request) {
-        RpcFuture rpcFuture = new RpcFuture(request);
+    public RpcFuture sendRequest(RpcRequest request, long requestTimeout) {
+        long remaining = RpcContext.getRemainingMillis();
+        if (remaining <= 0) {
+            //上游请求已经超时，结果不会再有人使用，不发送
+            RpcFuture rpcFuture = new RpcFuture(request);
+            rpcFuture.fail(new RpcTimeoutException("Deadline exceeded before sending request to " + remotePeer));
+            return rpcFuture;
+        }
+        final long timeoutMillis = Math.min(requestTimeout, remaining);
+        final long requestId = requestIdGenerator.incrementAndGet();
+        request.setRequestId(requestId);
+        request.setTimeout(timeoutMillis);
+        final RpcFuture rpcFuture = new RpcFuture(request, peakEwma);
         //把响应结果保存在pendingRPC中
-        pendingRPC.put(request.getRequestId(), rpcFuture);
-        try {
-//            ChannelFuture的作用是用来保存Channel异步操作的结果。
-//            调用sync()方法，等待异步操作执行完毕，就是让线程阻塞在这里，直到异步处理完成
-            //发送请求（向服务器）
-            ChannelFuture channelFuture = channel.writeAndFlush(request).sync();  //这个channelFuture不就可以拿到响应结果嘛，为啥还要RpcFuture
-            if (!channelFuture.isSuccess()) {
-                logger.error("Send request {} error", request.getRequestId());
+        pendingRPC.put(requestId, rpcFuture);
+        rpcFuture.setTimeout(TIMER.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (pendingRPC.remove(requestId, rpcFuture)) {
+                    rpcFuture.fail(new RpcTimeoutException("Request " + requestId + " to " + remotePeer
+                            + " timed out after " + timeoutMillis + "ms"));
+                }
             }
-        } catch (InterruptedException e) {
-            logger.error("Send request exception: " + e.getMessage());
-        }
-
+        }, timeoutMillis, TimeUnit.MILLISECONDS));
+        writeQueue.write(request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess() && pendingRPC.remove(requestId, rpcFuture)) {
+                    logger.error("Send request {} error: {}", requestId, future.cause().toString());
+                    rpcFuture.fail(new RpcException("Send request error: " + future.cause(), future.cause()));
+                }
+            }
+        });
         return rpcFuture;
     }
 
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
-            //Send ping
-            sendRequest(Beat.BEAT_PING);
+            //Send ping，心跳不需要等待响应
+            channel.writeAndFlush(Beat.BEAT_PING);
             logger.debug("Client send beat-ping to " + remotePeer);
         } else {
             super.userEventTriggered(ctx, evt);
         }
     }
 
+    /**
+     * 获取握手时服务端分配的方法id
+     * @param methodKey ServiceUtil.makeMethodKey生成的方法key
+     * @return 方法id，握手未完成或服务端没有该方法时返回0
+     */
+    public int getMethodId(String methodKey) {
+        Integer methodId = methodIds.get(methodKey);
+        return methodId != null ? methodId : 0;
+    }
+
+    /**
+     * 这个连接上等待响应的请求数
+     */
+    public int getInFlightCount() {
+        return pendingRPC.size();
+    }
+
     public void setRpcProtocol(RpcProtocol rpcProtocol) {
         this.rpcProtocol = rpcProtocol;
     }
 
+    public void setPeakEwma(PeakEwma peakEwma) {
+        this.peakEwma = peakEwma;
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
-        ConnectionManager.getInstance().removeHandler(rpcProtocol);
+        //连接断开后不会再有响应，所有等待中的请求立即失败
+        RpcException cause = new RpcException("Connection to " + remotePeer + " is closed");
+        for (RpcFuture rpcFuture : pendingRPC.removeAll()) {
+            rpcFuture.fail(cause);
+        }
+        if (rpcProtocol != null) {
+            ConnectionManager.getInstance().removeHandler(rpcProtocol, this);
+        }
     }
 }
@@ -25,9 +25,9 @@ public class RpcClientInitializer extends ChannelInitializer<SocketChannel> {
         //        addLast把一个业务处理类（handler） 添加到链中的最后一个位置
         ChannelPipeline cp = socketChannel.pipeline();
         cp.addLast(new IdleStateHandler(0, 0, Beat.BEAT_INTERVAL, TimeUnit.SECONDS));
-        cp.addLast(new RpcEncoder(RpcRequest.class, serializer));  //对rpc请求进行编码
-        cp.addLast(new LengthFieldBasedFrameDecoder(65536, 0, 4, 0, 0));
-        cp.addLast(new RpcDecoder(RpcResponse.class, serializer)); //对rpc响应进行解码
+        cp.addLast(new RpcEncoder(serializer));  //对rpc请求进行编码
+        cp.addLast(new LengthFieldBasedFrameDecoder(RpcHeader.maxFrameLength(), 0, 4, 0, 4));  //拆包并去掉长度字段，大消息由编码器分片
+        cp.addLast(new RpcDecoder(serializer)); //对rpc响应进行解码
         cp.addLast(new RpcClientHandler());
     }
 }
@@ -1,89 +1,103 @@
 package com.netty.rpc.client.handler;
 
 import com.netty.rpc.client.RpcClient;
+import com.netty.rpc.client.route.PeakEwma;
 import com.netty.rpc.codec.RpcRequest;
 import com.netty.rpc.codec.RpcResponse;
+import com.netty.rpc.exception.RpcException;
+import com.netty.rpc.exception.RpcOverloadedException;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * RPCFuture for async RPC call   RPC异步调用类
- *     //用来获取异步操作的结果
+ *     //用来获取异步操作的结果，基于CompletableFuture，可以直接用thenApply、thenCompose、allOf等组合，不需要阻塞线程等待
+ *     收到响应时在IO线程上完成；服务端返回错误或发送失败时以异常完成。
+ *     回调在哪个线程上执行由执行器决定：{@link #DIRECT_EXECUTOR}直接在完成的线程（通常是IO线程）上执行，
+ *     也可以传入调用方自己的执行器，不传时使用rpc.client.callback.executor配置的默认执行器（默认是客户端共享线程池）
  *
  */
-public class RpcFuture implements Future<Object> {
+public class RpcFuture extends CompletableFuture<Object> {
     private static final Logger logger = LoggerFactory.getLogger(RpcFuture.class);
 
-    private Sync sync;  //自定义同步器
-    private RpcRequest request;
-    private RpcResponse response;
-    private long startTime;
+    /**
+     * 直接在完成RpcFuture的线程上执行回调，回调中不能有阻塞操作
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final RpcRequest request;
+    private final long startTime;
+    private final long startNanos;
+    private final PeakEwma peakEwma;  //收到响应时记录响应时间，可以为null
     private long responseTimeThreshold = 5000;
-    private List<AsyncRPCCallback> pendingCallbacks = new ArrayList<>();
-    private ReentrantLock lock = new ReentrantLock();
+    private volatile Timeout timeout;  //时间轮上的超时任务，完成时取消
 
     public RpcFuture(RpcRequest request) {
-        this.sync = new Sync();  //创建一个同步器
+        this(request, null);
+    }
+
+    public RpcFuture(RpcRequest request, PeakEwma peakEwma) {
         this.request = request;
+        this.peakEwma = peakEwma;
         this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
     }
 
-    @Override
-    public boolean isDone() {
-        return sync.isDone();
+    public RpcRequest getRequest() {
+        return request;
     }
 
-    @Override
-    public Object get() {
-        sync.acquire(1);  //get的时候独占共享资源
-        if (this.response != null) {
-            return this.response.getResult();
-        } else {
-            return null;
-        }
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
     }
 
     @Override
-    public Object get(long timeout, TimeUnit unit) throws InterruptedException {
-        boolean success = sync.tryAcquireNanos(1, unit.toNanos(timeout));
-        if (success) {
-            if (this.response != null) {
-                return this.response.getResult();
-            } else {
-                return null;
-            }
-        } else {
-            throw new RuntimeException("Timeout exception. Request id: " + this.request.getRequestId()
-                    + ". Request class name: " + this.request.getClassName()
-                    + ". Request method: " + this.request.getMethodName());
+    public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return super.get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("Timeout exception. Request id: " + this.request.getRequestId()
+                    + ". Request method: " + describeMethod());
         }
     }
 
-    @Override
-    public boolean isCancelled() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean cancel(boolean mayInterruptIfRunning) {
-        throw new UnsupportedOperationException();
-    }
-
     /**
-     *      说明同步队列中有响应数据了
+     *      收到响应（或发送失败）时调用，完成这个future
      * @param reponse
      */
     public void done(RpcResponse reponse) {
-        this.response = reponse;
-        sync.release(1);  //释放资源
-        invokeCallbacks();
+        cancelTimeout();
+        if (peakEwma != null) {
+            //过载的节点很快就返回了响应，按响应时间记录会让它看起来更快，所以和失败一样记录惩罚值
+            if (reponse.isOverloaded()) {
+                observeFailure();
+            } else {
+                peakEwma.observe(System.nanoTime() - startNanos);
+            }
+        }
+        if (reponse.isOverloaded()) {
+            //服务端过载，请求没有执行，可以重试或换一个节点
+            completeExceptionally(new RpcOverloadedException(reponse.getError()));
+        } else if (reponse.isError()) {
+            completeExceptionally(new RpcException("Response error: " + reponse.getError()));
+        } else {
+            complete(reponse.getResult());
+        }
         // Threshold
         long responseTime = System.currentTimeMillis() - startTime;
         if (responseTime > this.responseTimeThreshold) {
@@ -91,75 +105,85 @@ public class RpcFuture implements Future<Object> {
         }
     }
 
-    private void invokeCallbacks() {
-        lock.lock();
-        try {
-            for (final AsyncRPCCallback callback : pendingCallbacks) {
-                runCallback(callback);
-            }
-        } finally {
-            lock.unlock();
+    /**
+     * 请求失败（发送失败、超时、连接断开）时调用
+     */
+    public void fail(Throwable cause) {
+        cancelTimeout();
+        if (peakEwma != null) {
+            observeFailure();
         }
+        completeExceptionally(cause);
     }
 
-    public RpcFuture addCallback(AsyncRPCCallback callback) {
-        lock.lock();
-        try {
-            if (isDone()) {
-                runCallback(callback);
-            } else {
-                this.pendingCallbacks.add(callback);
-            }
-        } finally {
-            lock.unlock();
+    private void observeFailure() {
+        peakEwma.observeFailure(System.nanoTime() - startNanos, TimeUnit.MILLISECONDS.toNanos(request.getTimeout()));
+    }
+
+    private void cancelTimeout() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
         }
-        return this;
     }
 
-    private void runCallback(final AsyncRPCCallback callback) {
-        final RpcResponse res = this.response;
-        RpcClient.submit(new Runnable() {
+    /**
+     * 添加回调，在默认执行器上执行
+     */
+    public RpcFuture addCallback(AsyncRPCCallback callback) {
+        return addCallback(callback, RpcClient.getCallbackExecutor());
+    }
+
+    /**
+     * 添加回调，在executor上执行，传入DIRECT_EXECUTOR时直接在完成的线程上执行
+     */
+    public RpcFuture addCallback(final AsyncRPCCallback callback, Executor executor) {
+        BiConsumer<Object, Throwable> action = new BiConsumer<Object, Throwable>() {
             @Override
-            public void run() {
-                if (!res.isError()) {
-                    callback.success(res.getResult());
+            public void accept(Object result, Throwable error) {
+                if (error == null) {
+                    callback.success(result);
                 } else {
-                    callback.fail(new RuntimeException("Response error", new Throwable(res.getError())));
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    callback.fail(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
                 }
             }
-        });
+        };
+        if (executor == DIRECT_EXECUTOR) {
+            whenComplete(action);
+        } else {
+            whenCompleteAsync(action, new RejectionAwareExecutor(executor, callback));
+        }
+        return this;
     }
 
     /**
-     * 自定义同步器
+     * 执行器拒绝回调（队列满或已关闭）时，CompletableFuture只会让它内部的下一个阶段失败，回调既不执行也没有任何通知；
+     * 这里改为在当前线程上调用callback.fail，参数为RejectedExecutionException
      */
-    static class Sync extends AbstractQueuedSynchronizer {
-        private static final long serialVersionUID = 1L;
-
-        //future status
-        private final int done = 1;
-        private final int pending = 0;  //等待
+    private final class RejectionAwareExecutor implements Executor {
+        private final Executor executor;
+        private final AsyncRPCCallback callback;
 
-        @Override
-        protected boolean tryAcquire(int arg) {
-            return getState() == done;
+        RejectionAwareExecutor(Executor executor, AsyncRPCCallback callback) {
+            this.executor = executor;
+            this.callback = callback;
         }
 
         @Override
-        protected boolean tryRelease(int arg) {
-            if (getState() == pending) {
-                if (compareAndSetState(pending, done)) {
-                    return true;
-                } else {
-                    return false;
-                }
-            } else {
-                return true;
+        public void execute(Runnable command) {
+            try {
+                executor.execute(command);
+            } catch (RejectedExecutionException e) {
+                logger.error("Callback of request {} is rejected: {}", request.getRequestId(), e.toString());
+                callback.fail(e);
             }
         }
+    }
 
-        protected boolean isDone() {
-            return getState() == done;
-        }
+    private String describeMethod() {
+        //按方法id发送的请求不带类名和方法名
+        return this.request.getMethodId() > 0 ? "id " + this.request.getMethodId()
+                : this.request.getClassName() + "." + this.request.getMethodName();
     }
 }
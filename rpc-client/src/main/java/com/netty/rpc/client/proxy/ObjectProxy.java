@@ -1,28 +1,49 @@
 package com.netty.rpc.client.proxy;
 
+import com.netty.rpc.annotation.RpcHashKey;
 import com.netty.rpc.client.connect.ConnectionManager;
 import com.netty.rpc.client.handler.RpcFuture;
 import com.netty.rpc.client.handler.RpcClientHandler;
 import com.netty.rpc.codec.RpcRequest;
+import com.netty.rpc.config.RpcConfig;
 import com.netty.rpc.util.ServiceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SerializedLambda;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  *          实现 InvocationHandler接口，重写invoke方法
+ *          创建时为接口的每个方法预先算好服务key、方法key、参数类型、路由参数位置和超时时间，
+ *          调用时只查表，不再拼接字符串、复制参数类型数组；同一个接口和版本的代理在RpcClient中缓存复用
  */
 public class ObjectProxy<T, P> implements InvocationHandler, RpcService<T, P, SerializableFunction<T>> {
     private static final Logger logger = LoggerFactory.getLogger(ObjectProxy.class);
     private Class<T> clazz;
     private String version;
+    //接口每个方法的元数据，创建代理时生成
+    private final Map<Method, MethodInfo> methodCache = new ConcurrentHashMap<>();
+    //lambda方法引用对应的接口方法，key为lambda生成的类，每个调用点只解析一次
+    private final Map<Class<?>, MethodInfo> lambdaCache = new ConcurrentHashMap<>();
+    //按方法名异步调用时的路由参数位置
+    private final Map<String, Integer> hashKeyIndexCache = new ConcurrentHashMap<>();
+    //缓存每个方法名的超时时间
+    private final Map<String, Integer> timeoutCache = new ConcurrentHashMap<>();
 
     public ObjectProxy(Class<T> clazz, String version) {
         this.clazz = clazz;
         this.version = version;
+        for (Method method : clazz.getMethods()) {
+            methodCache.put(method, newMethodInfo(method));
+        }
     }
 
     /**
@@ -49,66 +70,89 @@ public class ObjectProxy<T, P> implements InvocationHandler, RpcService<T, P, Se
                 throw new IllegalStateException(String.valueOf(method));
             }
         }
-        //将发送给rpc服务器的请求，封装起来
-        RpcRequest request = new RpcRequest(); // 创建并初始化 RPC 请求
-        request.setRequestId(UUID.randomUUID().toString());  //随机生成一个uuid
-//      method.getDeclaringClass()返回表示声明由此Method对象表示的方法的类的Class对象。
-        //class.getName()获取类的全限定类名
-        request.setClassName(method.getDeclaringClass().getName());
-        request.setMethodName(method.getName());
-        request.setParameterTypes(method.getParameterTypes());
-        request.setParameters(args);
-        request.setVersion(version);
-        // Debug
-        if (logger.isDebugEnabled()) {
-            logger.debug(method.getDeclaringClass().getName());
-            logger.debug(method.getName());
-            for (int i = 0; i < method.getParameterTypes().length; ++i) {
-                logger.debug(method.getParameterTypes()[i].getName());
-            }
-            for (int i = 0; i < args.length; ++i) {
-                logger.debug(args[i].toString());
-            }
+        MethodInfo methodInfo = methodCache.get(method);
+        if (methodInfo == null) {
+            methodInfo = newMethodInfo(method);
+            methodCache.put(method, methodInfo);
         }
+        Object hashKey = methodInfo.hashKeyIndex >= 0 ? args[methodInfo.hashKeyIndex] : null;
+        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(methodInfo.serviceKey, hashKey);  //根据负载均衡策略选着一个处理器
 
-        //创建服务key
-        String serviceKey = ServiceUtil.makeServiceKey(method.getDeclaringClass().getName(), version);
-        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(serviceKey);  //根据负载均衡策略选着一个处理器
-        RpcFuture rpcFuture = handler.sendRequest(request);   //前面都是动态代理对sendRequest方法的增强
-        return rpcFuture.get();  //返回响应结果
+        //将发送给rpc服务器的请求，封装起来
+        RpcRequest request = createRequest(handler, methodInfo, args);
+        RpcFuture rpcFuture = handler.sendRequest(request, methodInfo.timeout);   //前面都是动态代理对sendRequest方法的增强
+        try {
+            //CompletableFuture通过LockSupport.park等待，不持有监视器锁，在虚拟线程上调用时只挂起虚拟线程，不占用平台线程
+            return rpcFuture.get();  //返回响应结果
+        } catch (ExecutionException e) {
+            throw e.getCause();  //服务端返回的错误或发送失败
+        }
     }
 
     @Override
     public RpcFuture call(String funcName, Object... args) throws Exception {
         String serviceKey = ServiceUtil.makeServiceKey(this.clazz.getName(), version);
-        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(serviceKey);
-        RpcRequest request = createRequest(this.clazz.getName(), funcName, args);
-        RpcFuture rpcFuture = handler.sendRequest(request);
+        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(serviceKey, getHashKey(funcName, args));
+        RpcRequest request = createRequest(handler, serviceKey, funcName, args);
+        RpcFuture rpcFuture = handler.sendRequest(request, getTimeout(funcName));
         return rpcFuture;
     }
 
     @Override
     public RpcFuture call(SerializableFunction<T> tSerializableFunction, Object... args) throws Exception {
-        String serviceKey = ServiceUtil.makeServiceKey(this.clazz.getName(), version);
-        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(serviceKey);
-        RpcRequest request = createRequest(this.clazz.getName(), tSerializableFunction.getName(), args);
-        RpcFuture rpcFuture = handler.sendRequest(request);
+        MethodInfo methodInfo = lambdaCache.get(tSerializableFunction.getClass());
+        if (methodInfo == null) {
+            methodInfo = resolveLambda(tSerializableFunction);
+            lambdaCache.put(tSerializableFunction.getClass(), methodInfo);
+        }
+        Object hashKey = methodInfo.hashKeyIndex >= 0 ? args[methodInfo.hashKeyIndex] : null;
+        RpcClientHandler handler = ConnectionManager.getInstance().chooseHandler(methodInfo.serviceKey, hashKey);
+        RpcRequest request = createRequest(handler, methodInfo, args);
+        RpcFuture rpcFuture = handler.sendRequest(request, methodInfo.timeout);
         return rpcFuture;
     }
 
-    private RpcRequest createRequest(String className, String methodName, Object[] args) {
+    /**
+     * 根据lambda的实现方法名和方法签名找到接口中的方法，使用声明的参数类型，而不是按参数的运行时类型推断（参数为null或基本类型时推断不对）
+     * 只接受这个接口（或它继承的接口）上的方法引用，如HelloService::hello；其他lambda、别的接口上的同名方法都拒绝，
+     * 否则会按方法名调用到服务端一个不相关的方法
+     */
+    MethodInfo resolveLambda(SerializableFunction<T> function) throws Exception {
+        SerializedLambda serializedLambda = function.getSerializedLambda();
+        String implClass = serializedLambda.getImplClass().replace('/', '.');
+        String methodName = serializedLambda.getImplMethodName();
+        String signature = serializedLambda.getImplMethodSignature();
+        if (serializedLambda.getImplMethodKind() == MethodHandleInfo.REF_invokeInterface) {
+            for (Method method : clazz.getMethods()) {
+                if (method.getName().equals(methodName)
+                        && (implClass.equals(clazz.getName()) || implClass.equals(method.getDeclaringClass().getName()))
+                        && MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString().equals(signature)) {
+                    MethodInfo methodInfo = methodCache.get(method);
+                    return methodInfo != null ? methodInfo : newMethodInfo(method);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Not a method reference of " + clazz.getName() + ": " + implClass + "." + methodName + signature);
+    }
+
+    private RpcRequest createRequest(RpcClientHandler handler, String serviceKey, String methodName, Object[] args) {
+        String className = this.clazz.getName();
         RpcRequest request = new RpcRequest();
-        request.setRequestId(UUID.randomUUID().toString());
-        request.setClassName(className);
-        request.setMethodName(methodName);
         request.setParameters(args);
-        request.setVersion(version);
         Class[] parameterTypes = new Class[args.length];
         // Get the right class type
         for (int i = 0; i < args.length; i++) {
             parameterTypes[i] = getClassType(args[i]);
         }
-        request.setParameterTypes(parameterTypes);
+        int methodId = handler.getMethodId(ServiceUtil.makeMethodKey(serviceKey, methodName, parameterTypes));
+        if (methodId > 0) {
+            request.setMethodId(methodId);
+        } else {
+            request.setClassName(className);
+            request.setMethodName(methodName);
+            request.setVersion(version);
+            request.setParameterTypes(parameterTypes);
+        }
 
         // Debug
         if (logger.isDebugEnabled()) {
@@ -125,6 +169,115 @@ public class ObjectProxy<T, P> implements InvocationHandler, RpcService<T, P, Se
         return request;
     }
 
+    /**
+     * 方法的超时时间：rpc.client.request.timeout.接口全名.方法名，没有配置时使用默认超时时间
+     */
+    private int getTimeout(String methodName) {
+        Integer timeout = timeoutCache.get(methodName);
+        if (timeout == null) {
+            timeout = RpcConfig.getInt(RpcConfig.REQUEST_TIMEOUT + "." + clazz.getName() + "." + methodName,
+                    RpcClientHandler.DEFAULT_REQUEST_TIMEOUT);
+            timeoutCache.put(methodName, timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * 按预先算好的方法元数据创建请求，请求id在发送时由连接分配
+     */
+    private RpcRequest createRequest(RpcClientHandler handler, MethodInfo methodInfo, Object[] args) {
+        RpcRequest request = new RpcRequest();
+        int methodId = handler.getMethodId(methodInfo.methodKey);
+        if (methodId > 0) {
+            //握手已完成，只发送方法id，服务端据此找到要调用的方法
+            request.setMethodId(methodId);
+        } else {
+            request.setClassName(methodInfo.className);
+            request.setMethodName(methodInfo.methodName);
+            request.setParameterTypes(methodInfo.parameterTypes);
+            request.setVersion(version);
+        }
+        request.setParameters(args);
+        // Debug
+        if (logger.isDebugEnabled()) {
+            logger.debug(methodInfo.methodKey);
+            if (args != null) {
+                for (int i = 0; i < args.length; ++i) {
+                    logger.debug(String.valueOf(args[i]));
+                }
+            }
+        }
+        return request;
+    }
+
+    private MethodInfo newMethodInfo(Method method) {
+//      method.getDeclaringClass()返回表示声明由此Method对象表示的方法的类的Class对象。
+        //class.getName()获取类的全限定类名
+        String className = method.getDeclaringClass().getName();
+        String serviceKey = ServiceUtil.makeServiceKey(className, version);
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        return new MethodInfo(serviceKey, className, method.getName(), parameterTypes,
+                ServiceUtil.makeMethodKey(serviceKey, method.getName(), parameterTypes),
+                getHashKeyIndex(method), getTimeout(method.getName()));
+    }
+
+    /**
+     * 按方法名调用时的路由key：在接口中找同名、参数个数相同的方法，取其@RpcHashKey参数的值
+     */
+    private Object getHashKey(String methodName, Object[] args) {
+        Integer index = hashKeyIndexCache.get(methodName + "/" + args.length);
+        if (index == null) {
+            index = -1;
+            for (Method method : clazz.getMethods()) {
+                if (method.getName().equals(methodName) && method.getParameterTypes().length == args.length) {
+                    index = getHashKeyIndex(method);
+                    break;
+                }
+            }
+            hashKeyIndexCache.put(methodName + "/" + args.length, index);
+        }
+        return index >= 0 ? args[index] : null;
+    }
+
+    /**
+     * 方法中@RpcHashKey参数的位置，没有时返回-1
+     */
+    private static int getHashKeyIndex(Method method) {
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof RpcHashKey) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一个接口方法的元数据，创建后不再修改
+     */
+    private static final class MethodInfo {
+        final String serviceKey;
+        final String className;
+        final String methodName;
+        final Class<?>[] parameterTypes;  //只读，按方法名发送请求时直接使用
+        final String methodKey;
+        final int hashKeyIndex;  //路由参数的位置，-1表示没有
+        final int timeout;
+
+        MethodInfo(String serviceKey, String className, String methodName, Class<?>[] parameterTypes,
+                   String methodKey, int hashKeyIndex, int timeout) {
+            this.serviceKey = serviceKey;
+            this.className = className;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.methodKey = methodKey;
+            this.hashKeyIndex = hashKeyIndex;
+            this.timeout = timeout;
+        }
+    }
+
     private Class<?> getClassType(Object obj) {
         Class<?> classType = obj.getClass();
 //        String typeName = classType.getName();
@@ -6,9 +6,15 @@ import java.lang.reflect.Method;
 
 public interface SerializableFunction<T> extends Serializable {
     default String getName() throws Exception {
+        return getSerializedLambda().getImplMethodName();
+    }
+
+    /**
+     * 方法引用的描述（实现类、方法名、方法签名），每次调用都会通过反射生成，调用方需要自己缓存结果
+     */
+    default SerializedLambda getSerializedLambda() throws Exception {
         Method write = this.getClass().getDeclaredMethod("writeReplace");
         write.setAccessible(true);
-        SerializedLambda serializedLambda = (SerializedLambda) write.invoke(this);
-        return serializedLambda.getImplMethodName();
+        return (SerializedLambda) write.invoke(this);
     }
 }
@@ -0,0 +1,61 @@
+package com.netty.rpc.client.route;
+
+import com.netty.rpc.config.RpcConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个服务提供者响应时间的峰值EWMA（指数加权移动平均）
+ *     响应时间超过当前值时直接取这个响应时间（峰值），否则按距上次更新的时间指数衰减后与新值加权平均，
+ *     所以节点变慢（GC停顿、过载）时马上生效，恢复后在rpc.client.peak.ewma.decay毫秒左右的时间内逐渐回落。
+ *     由RpcFuture在收到响应时更新；超时、发送失败、连接断开和过载响应记录一个惩罚值，避免失败快的节点被当作快节点，
+ *     惩罚值是当前估计的几倍，但不超过超时时间的1/10，一次失败不会让健康的节点长时间收不到请求。
+ *     RpcLoadBalancePeakEwma用它和在途请求数给节点打分
+ */
+public class PeakEwma {
+    private static final double DECAY_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1, RpcConfig.getInt(RpcConfig.CLIENT_PEAK_EWMA_DECAY, 5000)));
+
+    private static final int PENALTY_FACTOR = 4;  //失败时记录当前响应时间的多少倍
+    private static final int PENALTY_TIMEOUT_DIVISOR = 10;  //惩罚值不超过超时时间的1/10
+
+    private long stamp = System.nanoTime();  //上次更新的时间
+    private double cost = 0;  //响应时间，纳秒
+
+    /**
+     * 记录一次响应时间
+     * @param rttNanos 从发送请求到收到响应的时间，纳秒
+     */
+    public synchronized void observe(long rttNanos) {
+        long now = System.nanoTime();
+        if (rttNanos > cost) {
+            cost = rttNanos;
+        } else {
+            double w = Math.exp(-(now - stamp) / DECAY_NANOS);
+            cost = cost * w + rttNanos * (1 - w);
+        }
+        stamp = now;
+    }
+
+    /**
+     * 记录一次失败（超时、发送失败、连接断开、过载）
+     * @param elapsedNanos 从发送请求到失败的时间，纳秒
+     * @param timeoutNanos 请求的超时时间，纳秒，0表示没有超时时间
+     */
+    public synchronized void observeFailure(long elapsedNanos, long timeoutNanos) {
+        long penalty = (long) (Math.max(get(), elapsedNanos) * PENALTY_FACTOR);
+        if (timeoutNanos > 0) {
+            penalty = Math.min(penalty, timeoutNanos / PENALTY_TIMEOUT_DIVISOR);
+        }
+        observe(penalty);
+    }
+
+    /**
+     * 当前的响应时间估计，纳秒；长时间没有响应时按时间衰减
+     */
+    public synchronized double get() {
+        long now = System.nanoTime();
+        double w = Math.exp(-(now - stamp) / DECAY_NANOS);
+        return cost * w;
+    }
+}
@@ -1,43 +1,48 @@
 package com.netty.rpc.client.route;
 
-import com.netty.rpc.client.handler.RpcClientHandler;
-import com.netty.rpc.protocol.RpcProtocol;
-import com.netty.rpc.protocol.RpcServiceInfo;
-import com.netty.rpc.util.ServiceUtil;
-import org.apache.commons.collections4.map.HashedMap;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import com.netty.rpc.client.connect.ConnectionPool;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceConsistentHash;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceLFU;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceLRU;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceP2C;
+import com.netty.rpc.client.route.impl.RpcLoadBalancePeakEwma;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceRandom;
+import com.netty.rpc.client.route.impl.RpcLoadBalanceRoundRobin;
 
 /**
  *  RPC负载均衡
  */
 public abstract class RpcLoadBalance {
-    // Service map: key为服务，value为拥有这个服务的服务器的集合
-    protected Map<String, List<RpcProtocol>> getServiceMap(Map<RpcProtocol, RpcClientHandler> connectedServerNodes) {
-//        HashedMap是apache的commons项目出的工具类，可以用于替代HashMap，增加了一些新的功能。
-        Map<String, List<RpcProtocol>> serviceMap = new HashedMap<>();  //这里是同一个服务，找出所有的服务器
-        if (connectedServerNodes != null && connectedServerNodes.size() > 0) {
-            //获取每个服务器rpcProtocol下的服务接口列表，因为rpcProtocol可能是集群，所有多个服务器存在相同的服务
-            for (RpcProtocol rpcProtocol : connectedServerNodes.keySet()) {
-                //遍历每个服务接口列表
-                for (RpcServiceInfo serviceInfo : rpcProtocol.getServiceInfoList()) {
-                    String serviceKey = ServiceUtil.makeServiceKey(serviceInfo.getServiceName(), serviceInfo.getVersion());
-                    List<RpcProtocol> rpcProtocolList = serviceMap.get(serviceKey);
-                    if (rpcProtocolList == null) {  //不存在这个
-                        rpcProtocolList = new ArrayList<>();
-                    }
-                    rpcProtocolList.add(rpcProtocol);
-                    //putIfAbsent() 方法会先判断指定的键（key）是否存在，不存在则将键/值对插入到 HashMap 中。存在的化就不会插入
-                    serviceMap.putIfAbsent(serviceKey, rpcProtocolList);
-                }
-            }
-        }
-        return serviceMap;
-    }
-
     // Route the connection for service key
     //   连接哪个服务器，使用什么策略，重写这个方法就好了
-    public abstract RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception;
+    //   providers是ConnectionManager中按服务预先建好的节点数组，只在节点变化时重建，多个线程共享，不能修改
+    public abstract ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception;
+
+    // 带路由key的请求（接口方法的参数上有@RpcHashKey）调用这个方法，hashKey为该参数的值
+    //   默认忽略路由key，需要按key选择节点的策略重写这个方法
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers, Object hashKey) throws Exception {
+        return route(serviceKey, providers);
+    }
+
+    /**
+     * 按名称（rpc.client.loadbalance的值）创建负载均衡策略，不支持的名称返回null
+     */
+    public static RpcLoadBalance get(String name) {
+        if ("roundrobin".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceRoundRobin();
+        } else if ("random".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceRandom();
+        } else if ("lru".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceLRU();
+        } else if ("lfu".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceLFU();
+        } else if ("consistenthash".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceConsistentHash();
+        } else if ("p2c".equalsIgnoreCase(name)) {
+            return new RpcLoadBalanceP2C();
+        } else if ("peakewma".equalsIgnoreCase(name)) {
+            return new RpcLoadBalancePeakEwma();
+        }
+        return null;
+    }
 }
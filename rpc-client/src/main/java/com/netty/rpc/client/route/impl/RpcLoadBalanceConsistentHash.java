@@ -1,28 +1,97 @@
 package com.netty.rpc.client.route.impl;
 
+import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
-import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.connect.ConnectionPool;
 import com.netty.rpc.client.route.RpcLoadBalance;
+import com.netty.rpc.config.RpcConfig;
 import com.netty.rpc.protocol.RpcProtocol;
 
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Consistent hash load balance  一致性哈希（ketama方式）
+ *     每个节点按 host:port 在哈希环上放置多个虚拟节点，请求按路由key（@RpcHashKey标记的参数，没有时为服务key）的哈希值
+ *     顺时针找到第一个虚拟节点。同一个key总是落在同一个节点上，节点增减时只有相邻区间的key会改变节点。
+ *     每个服务的哈希环缓存起来，只有ConnectionManager中的节点数组变化（节点增减）时才重建。
+ */
 public class RpcLoadBalanceConsistentHash extends RpcLoadBalance {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    //每个节点的虚拟节点数
+    private final int replicas = Math.max(1, RpcConfig.getInt(RpcConfig.CLIENT_CONSISTENT_HASH_REPLICAS, 160));
+    private final ConcurrentMap<String, Ring> rings = new ConcurrentHashMap<>();
 
-    public RpcProtocol doRoute(String serviceKey, List<RpcProtocol> addressList) {
-        int index = Hashing.consistentHash(serviceKey.hashCode(), addressList.size());
-        return addressList.get(index);
+    public ConnectionPool doRoute(String serviceKey, ConnectionPool[] providers, Object hashKey) {
+        if (providers.length == 1) {
+            return providers[0];
+        }
+        Ring ring = rings.get(serviceKey);
+        if (ring == null || ring.providers != providers) {
+            //节点数组在节点变化时整体替换，引用不同就说明需要重建
+            ring = new Ring(providers, replicas);
+            rings.put(serviceKey, ring);
+        }
+        String key = hashKey != null ? hashKey.toString() : serviceKey;
+        return ring.get(HASH.hashString(key, StandardCharsets.UTF_8).asLong());
+    }
+
+    @Override
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        return route(serviceKey, providers, null);
     }
 
     @Override
-    public RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception {
-        Map<String, List<RpcProtocol>> serviceMap = getServiceMap(connectedServerNodes);
-        List<RpcProtocol> addressList = serviceMap.get(serviceKey);
-        if (addressList != null && addressList.size() > 0) {
-            return doRoute(serviceKey, addressList);
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers, Object hashKey) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(serviceKey, providers, hashKey);
         } else {
             throw new Exception("Can not find connection for service: " + serviceKey);
         }
     }
+
+    /**
+     * 一个服务的哈希环：虚拟节点的哈希值排序后放在数组中，查找时二分
+     */
+    private static final class Ring {
+        final ConnectionPool[] providers;
+        final long[] points;
+        final ConnectionPool[] owners;
+
+        Ring(ConnectionPool[] providers, int replicas) {
+            this.providers = providers;
+            //TreeMap按哈希值排序，哈希值相同的虚拟节点只保留一个
+            TreeMap<Long, ConnectionPool> circle = new TreeMap<>();
+            for (ConnectionPool provider : providers) {
+                RpcProtocol rpcProtocol = provider.getRpcProtocol();
+                String node = rpcProtocol.getHost() + ":" + rpcProtocol.getPort();
+                for (int i = 0; i < replicas; i++) {
+                    circle.put(HASH.hashString(node + "#" + i, StandardCharsets.UTF_8).asLong(), provider);
+                }
+            }
+            this.points = new long[circle.size()];
+            this.owners = new ConnectionPool[circle.size()];
+            int i = 0;
+            for (Map.Entry<Long, ConnectionPool> entry : circle.entrySet()) {
+                points[i] = entry.getKey();
+                owners[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        ConnectionPool get(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;  //第一个大于hash的虚拟节点
+                if (index == points.length) {
+                    index = 0;  //环的末尾回到开头
+                }
+            }
+            return owners[index];
+        }
+    }
 }
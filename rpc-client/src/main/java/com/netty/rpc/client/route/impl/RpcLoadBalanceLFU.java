@@ -1,8 +1,7 @@
 package com.netty.rpc.client.route.impl;
 
-import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.connect.ConnectionPool;
 import com.netty.rpc.client.route.RpcLoadBalance;
-import com.netty.rpc.protocol.RpcProtocol;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,10 +12,12 @@ import java.util.concurrent.ConcurrentMap;
  *
  */
 public class RpcLoadBalanceLFU extends RpcLoadBalance {
-    private ConcurrentMap<String, HashMap<RpcProtocol, Integer>> jobLfuMap = new ConcurrentHashMap<String, HashMap<RpcProtocol, Integer>>();
+    private ConcurrentMap<String, HashMap<ConnectionPool, Integer>> jobLfuMap = new ConcurrentHashMap<String, HashMap<ConnectionPool, Integer>>();
     private long CACHE_VALID_TIME = 0;
 
-    public RpcProtocol doRoute(String serviceKey, List<RpcProtocol> addressList) {
+    //缓存的map不是线程安全的，多个调用线程同时路由时需要同步
+    public synchronized ConnectionPool doRoute(String serviceKey, ConnectionPool[] providers) {
+        List<ConnectionPool> addressList = Arrays.asList(providers);
         // cache clear
         if (System.currentTimeMillis() > CACHE_VALID_TIME) {
             jobLfuMap.clear();
@@ -24,54 +25,52 @@ public class RpcLoadBalanceLFU extends RpcLoadBalance {
         }
 
         // lfu item init
-        HashMap<RpcProtocol, Integer> lfuItemMap = jobLfuMap.get(serviceKey);
+        HashMap<ConnectionPool, Integer> lfuItemMap = jobLfuMap.get(serviceKey);
         if (lfuItemMap == null) {
-            lfuItemMap = new HashMap<RpcProtocol, Integer>();
+            lfuItemMap = new HashMap<ConnectionPool, Integer>();
             jobLfuMap.putIfAbsent(serviceKey, lfuItemMap);   // 避免重复覆盖
         }
 
         // put new
-        for (RpcProtocol address : addressList) {
+        for (ConnectionPool address : addressList) {
             if (!lfuItemMap.containsKey(address) || lfuItemMap.get(address) > 1000000) {
                 lfuItemMap.put(address, 0);
             }
         }
 
         // remove old
-        List<RpcProtocol> delKeys = new ArrayList<>();
-        for (RpcProtocol existKey : lfuItemMap.keySet()) {
+        List<ConnectionPool> delKeys = new ArrayList<>();
+        for (ConnectionPool existKey : lfuItemMap.keySet()) {
             if (!addressList.contains(existKey)) {
                 delKeys.add(existKey);
             }
         }
         if (delKeys.size() > 0) {
-            for (RpcProtocol delKey : delKeys) {
+            for (ConnectionPool delKey : delKeys) {
                 lfuItemMap.remove(delKey);
             }
         }
 
         // load least used count address
-        List<Map.Entry<RpcProtocol, Integer>> lfuItemList = new ArrayList<Map.Entry<RpcProtocol, Integer>>(lfuItemMap.entrySet());
-        Collections.sort(lfuItemList, new Comparator<Map.Entry<RpcProtocol, Integer>>() {
+        List<Map.Entry<ConnectionPool, Integer>> lfuItemList = new ArrayList<Map.Entry<ConnectionPool, Integer>>(lfuItemMap.entrySet());
+        Collections.sort(lfuItemList, new Comparator<Map.Entry<ConnectionPool, Integer>>() {
             @Override
-            public int compare(Map.Entry<RpcProtocol, Integer> o1, Map.Entry<RpcProtocol, Integer> o2) {
+            public int compare(Map.Entry<ConnectionPool, Integer> o1, Map.Entry<ConnectionPool, Integer> o2) {
                 return o1.getValue().compareTo(o2.getValue());
             }
         });
 
-        Map.Entry<RpcProtocol, Integer> addressItem = lfuItemList.get(0);
-        RpcProtocol minAddress = addressItem.getKey();
+        Map.Entry<ConnectionPool, Integer> addressItem = lfuItemList.get(0);
+        ConnectionPool minAddress = addressItem.getKey();
         addressItem.setValue(addressItem.getValue() + 1);
 
         return minAddress;
     }
 
     @Override
-    public RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception {
-        Map<String, List<RpcProtocol>> serviceMap = getServiceMap(connectedServerNodes);
-        List<RpcProtocol> addressList = serviceMap.get(serviceKey);
-        if (addressList != null && addressList.size() > 0) {
-            return doRoute(serviceKey, addressList);
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(serviceKey, providers);
         } else {
             throw new Exception("Can not find connection for service: " + serviceKey);
         }
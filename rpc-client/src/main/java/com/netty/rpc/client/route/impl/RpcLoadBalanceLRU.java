@@ -1,8 +1,7 @@
 package com.netty.rpc.client.route.impl;
 
-import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.connect.ConnectionPool;
 import com.netty.rpc.client.route.RpcLoadBalance;
-import com.netty.rpc.protocol.RpcProtocol;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,11 +12,13 @@ import java.util.concurrent.ConcurrentMap;
  *
  */
 public class RpcLoadBalanceLRU extends RpcLoadBalance {
-    private ConcurrentMap<String, LinkedHashMap<RpcProtocol, RpcProtocol>> jobLRUMap =
-            new ConcurrentHashMap<String, LinkedHashMap<RpcProtocol, RpcProtocol>>();
+    private ConcurrentMap<String, LinkedHashMap<ConnectionPool, ConnectionPool>> jobLRUMap =
+            new ConcurrentHashMap<String, LinkedHashMap<ConnectionPool, ConnectionPool>>();
     private long CACHE_VALID_TIME = 0;
 
-    public RpcProtocol doRoute(String serviceKey, List<RpcProtocol> addressList) {
+    //缓存的map不是线程安全的，多个调用线程同时路由时需要同步
+    public synchronized ConnectionPool doRoute(String serviceKey, ConnectionPool[] providers) {
+        List<ConnectionPool> addressList = Arrays.asList(providers);
         // cache clear
         if (System.currentTimeMillis() > CACHE_VALID_TIME) {
             jobLRUMap.clear();
@@ -25,7 +26,7 @@ public class RpcLoadBalanceLRU extends RpcLoadBalance {
         }
 
         // init lru
-        LinkedHashMap<RpcProtocol, RpcProtocol> lruHashMap = jobLRUMap.get(serviceKey);
+        LinkedHashMap<ConnectionPool, ConnectionPool> lruHashMap = jobLRUMap.get(serviceKey);
         if (lruHashMap == null) {
             /**
              * LinkedHashMap
@@ -33,9 +34,9 @@ public class RpcLoadBalanceLRU extends RpcLoadBalance {
              * b、removeEldestEntry：新增元素时将会调用，返回true时会删除最老元素；
              *      可封装LinkedHashMap并重写该方法，比如定义最大容量，超出是返回true即可实现固定长度的LRU算法；
              */
-            lruHashMap = new LinkedHashMap<RpcProtocol, RpcProtocol>(16, 0.75f, true) {
+            lruHashMap = new LinkedHashMap<ConnectionPool, ConnectionPool>(16, 0.75f, true) {
                 @Override
-                protected boolean removeEldestEntry(Map.Entry<RpcProtocol, RpcProtocol> eldest) {
+                protected boolean removeEldestEntry(Map.Entry<ConnectionPool, ConnectionPool> eldest) {
                     if (super.size() > 1000) {
                         return true;
                     } else {
@@ -47,36 +48,34 @@ public class RpcLoadBalanceLRU extends RpcLoadBalance {
         }
 
         // put new
-        for (RpcProtocol address : addressList) {
+        for (ConnectionPool address : addressList) {
             if (!lruHashMap.containsKey(address)) {
                 lruHashMap.put(address, address);
             }
         }
         // remove old
-        List<RpcProtocol> delKeys = new ArrayList<>();
-        for (RpcProtocol existKey : lruHashMap.keySet()) {
+        List<ConnectionPool> delKeys = new ArrayList<>();
+        for (ConnectionPool existKey : lruHashMap.keySet()) {
             if (!addressList.contains(existKey)) {
                 delKeys.add(existKey);
             }
         }
         if (delKeys.size() > 0) {
-            for (RpcProtocol delKey : delKeys) {
+            for (ConnectionPool delKey : delKeys) {
                 lruHashMap.remove(delKey);
             }
         }
 
         // load
-        RpcProtocol eldestKey = lruHashMap.entrySet().iterator().next().getKey();
-        RpcProtocol eldestValue = lruHashMap.get(eldestKey);
+        ConnectionPool eldestKey = lruHashMap.entrySet().iterator().next().getKey();
+        ConnectionPool eldestValue = lruHashMap.get(eldestKey);
         return eldestValue;
     }
 
     @Override
-    public RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception {
-        Map<String, List<RpcProtocol>> serviceMap = getServiceMap(connectedServerNodes);
-        List<RpcProtocol> addressList = serviceMap.get(serviceKey);
-        if (addressList != null && addressList.size() > 0) {
-            return doRoute(serviceKey, addressList);
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(serviceKey, providers);
         } else {
             throw new Exception("Can not find connection for service: " + serviceKey);
         }
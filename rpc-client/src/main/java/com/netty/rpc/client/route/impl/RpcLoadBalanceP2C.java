@@ -0,0 +1,39 @@
+package com.netty.rpc.client.route.impl;
+
+import com.netty.rpc.client.connect.ConnectionPool;
+import com.netty.rpc.client.route.RpcLoadBalance;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices load balance
+ *     随机选两个节点，选择等待响应的请求（各连接的在途请求数之和）较少的一个。
+ *     比较的是实际负载，处理慢的节点请求会积压，自然被少选；不需要全局排序，也没有共享的可变状态，多个线程调用时无锁。
+ */
+public class RpcLoadBalanceP2C extends RpcLoadBalance {
+
+    public ConnectionPool doRoute(ConnectionPool[] providers) {
+        int size = providers.length;
+        if (size == 1) {
+            return providers[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;  //保证两个节点不同
+        }
+        ConnectionPool a = providers[first];
+        ConnectionPool b = providers[second];
+        return b.getInFlightCount() < a.getInFlightCount() ? b : a;
+    }
+
+    @Override
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(providers);
+        } else {
+            throw new Exception("Can not find connection for service: " + serviceKey);
+        }
+    }
+}
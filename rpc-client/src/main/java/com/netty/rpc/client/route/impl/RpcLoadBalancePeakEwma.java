@@ -0,0 +1,80 @@
+package com.netty.rpc.client.route.impl;
+
+import com.netty.rpc.client.connect.ConnectionPool;
+import com.netty.rpc.client.route.RpcLoadBalance;
+import com.netty.rpc.config.RpcConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peak EWMA load balance
+ *     节点的得分 = 响应时间的峰值EWMA * (在途请求数 + 1)，随机选两个节点，选择得分低的一个。
+ *     响应变慢或请求积压的节点得分马上升高，几乎不再被选中；恢复后EWMA逐渐回落，流量再慢慢回来。
+ *     还没有响应时间的新节点（包括重连的节点）按其他节点响应时间的中位数打分，都没有时按rpc.client.peak.ewma.initial，
+ *     不会因为得分为0在收到第一个响应之前接收所有流量。
+ */
+public class RpcLoadBalancePeakEwma extends RpcLoadBalance {
+    private static final double INITIAL_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1, RpcConfig.getInt(RpcConfig.CLIENT_PEAK_EWMA_INITIAL, 10)));
+
+    public ConnectionPool doRoute(ConnectionPool[] providers) {
+        int size = providers.length;
+        if (size == 1) {
+            return providers[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;  //保证两个节点不同
+        }
+        ConnectionPool a = providers[first];
+        ConnectionPool b = providers[second];
+        double latencyA = a.getPeakEwma().get();
+        double latencyB = b.getPeakEwma().get();
+        if (latencyA == 0 || latencyB == 0) {
+            //响应时间随时间衰减，重新一次性读出所有节点的值，两个节点和中位数来自同一组读数
+            double[] latencies = new double[size];
+            for (int i = 0; i < size; i++) {
+                latencies[i] = providers[i].getPeakEwma().get();
+            }
+            double neutral = neutralLatency(latencies.clone());
+            latencyA = latencies[first] > 0 ? latencies[first] : neutral;
+            latencyB = latencies[second] > 0 ? latencies[second] : neutral;
+        }
+        return score(latencyB, b) < score(latencyA, a) ? b : a;
+    }
+
+    private static double score(double latency, ConnectionPool pool) {
+        return latency * (pool.getInFlightCount() + 1);
+    }
+
+    /**
+     * 没有响应时间的节点使用的响应时间：有响应时间的节点的中位数，都没有时为配置的初始值
+     * @param latencies 所有节点的响应时间，会被修改
+     */
+    private static double neutralLatency(double[] latencies) {
+        int count = 0;
+        for (double latency : latencies) {
+            if (latency > 0) {
+                latencies[count++] = latency;
+            }
+        }
+        if (count == 0) {
+            return INITIAL_NANOS;
+        }
+        Arrays.sort(latencies, 0, count);
+        return latencies[count / 2];
+    }
+
+    @Override
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(providers);
+        } else {
+            throw new Exception("Can not find connection for service: " + serviceKey);
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.netty.rpc.client.route.impl;
 
-import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.connect.ConnectionPool;
 import com.netty.rpc.client.route.RpcLoadBalance;
-import com.netty.rpc.protocol.RpcProtocol;
 
 import java.util.*;
 
@@ -13,18 +12,16 @@ import java.util.*;
 public class RpcLoadBalanceRandom extends RpcLoadBalance {
     private Random random = new Random();
 
-    public RpcProtocol doRoute(List<RpcProtocol> addressList) {
-        int size = addressList.size();
+    public ConnectionPool doRoute(ConnectionPool[] providers) {
+        int size = providers.length;
         // Random
-        return addressList.get(random.nextInt(size));
+        return providers[random.nextInt(size)];
     }
 
     @Override
-    public RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception {
-        Map<String, List<RpcProtocol>> serviceMap = getServiceMap(connectedServerNodes);
-        List<RpcProtocol> addressList = serviceMap.get(serviceKey);
-        if (addressList != null && addressList.size() > 0) {
-            return doRoute(addressList);
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(providers);
         } else {
             throw new Exception("Can not find connection for service: " + serviceKey);
         }
@@ -1,11 +1,8 @@
 package com.netty.rpc.client.route.impl;
 
-import com.netty.rpc.client.handler.RpcClientHandler;
+import com.netty.rpc.client.connect.ConnectionPool;
 import com.netty.rpc.client.route.RpcLoadBalance;
-import com.netty.rpc.protocol.RpcProtocol;
 
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -18,23 +15,20 @@ public class RpcLoadBalanceRoundRobin extends RpcLoadBalance {
 
     /**
      * 对拥有某个服务的服务器集合做轮询策略
-     * @param addressList
+     * @param providers
      * @return
      */
-    public RpcProtocol doRoute(List<RpcProtocol> addressList) {
-        int size = addressList.size();
+    public ConnectionPool doRoute(ConnectionPool[] providers) {
+        int size = providers.length;
         // Round robin
-        int index = (roundRobin.getAndAdd(1) + size) % size;
-        return addressList.get(index);
+        int index = (roundRobin.getAndAdd(1) & Integer.MAX_VALUE) % size;
+        return providers[index];
     }
 
     @Override
-    public RpcProtocol route(String serviceKey, Map<RpcProtocol, RpcClientHandler> connectedServerNodes) throws Exception {
-        //调用父类RpcLoadBalance的方法，得到服务和服务器的map集合
-        Map<String, List<RpcProtocol>> serviceMap = getServiceMap(connectedServerNodes);
-        List<RpcProtocol> addressList = serviceMap.get(serviceKey);
-        if (addressList != null && addressList.size() > 0) {
-            return doRoute(addressList);
+    public ConnectionPool route(String serviceKey, ConnectionPool[] providers) throws Exception {
+        if (providers != null && providers.length > 0) {
+            return doRoute(providers);
         } else {
             throw new Exception("Can not find connection for service: " + serviceKey);
         }
@@ -19,4 +19,24 @@ public @interface NettyRpcService {
     Class<?> value();
 
     String version() default "";
+
+    /**
+     * 服务独占的线程数（舱壁隔离），0表示使用服务器共享的线程池。
+     * 独占线程池满时新请求立即返回过载响应，一个慢服务不会占满其他服务的线程。
+     * 注意：virtualThreads为true时含义不同，不再是线程数，而是同时执行的请求数上限（不排队，超过时返回过载响应），
+     * 0表示使用rpc.server.virtual.max.concurrency
+     */
+    int threads() default 0;
+
+    /**
+     * 每个请求在一个虚拟线程上执行（需要Java 21以上），适合调用数据库、下游RPC等阻塞的服务。
+     * 这时threads是并发上限，queueSize不起作用；JVM不支持虚拟线程时退回threads个线程、queueSize长队列的独占线程池，
+     * threads为0时退回服务器共享的线程池
+     */
+    boolean virtualThreads() default false;
+
+    /**
+     * 服务独占线程池的队列长度，0表示不排队。virtualThreads为true时忽略（除非JVM不支持虚拟线程而退回线程池）
+     */
+    int queueSize() default 1000;
 }
@@ -0,0 +1,17 @@
+package com.netty.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 非阻塞的服务方法，加在服务实现类（@NettyRpcService）的方法上。
+ *         直接在IO线程上执行并写出响应，不切换到业务线程池；只用于很快返回、不做任何阻塞操作的方法（例如读内存缓存），
+ *         否则会阻塞同一个EventLoop上的所有连接
+ *
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NonBlocking {
+}
@@ -0,0 +1,19 @@
+package com.netty.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法独占的线程池（舱壁隔离），加在服务实现类（@NettyRpcService）的方法上，优先于服务级别的线程池。
+ *         线程池满时新请求立即返回过载响应
+ *
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcBulkhead {
+    int threads();
+
+    int queueSize() default 1000;
+}
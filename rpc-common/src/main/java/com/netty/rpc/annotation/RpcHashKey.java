@@ -0,0 +1,16 @@
+package com.netty.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记服务接口方法的路由参数，加在接口方法的一个参数上
+ *         使用一致性哈希负载均衡时，按这个参数的值（toString）选择节点，同一个值（例如用户id）的请求总是发到同一个节点
+ *
+ */
+@Target({ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcHashKey {
+}
@@ -9,13 +9,11 @@ public final class Beat {
 
     public static final int BEAT_INTERVAL = 30;  //INTERVAL：时间间隔
     public static final int BEAT_TIMEOUT = 3 * BEAT_INTERVAL;
-    public static final String BEAT_ID = "BEAT_PING_PONG";
 
-    public static RpcRequest BEAT_PING;
+    // 心跳消息没有消息体，编码时只写帧头，由帧头中的消息类型 RpcHeader.TYPE_HEARTBEAT 标识
+    public static final Beat BEAT_PING = new Beat();
 
-    static {
-        BEAT_PING = new RpcRequest() {};
-        BEAT_PING.setRequestId(BEAT_ID);
+    private Beat() {
     }
 
 }
@@ -1,63 +1,209 @@
 package com.netty.rpc.codec;
 
+import com.netty.rpc.compress.Compressor;
 import com.netty.rpc.serializer.Serializer;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
 /**
- * RPC Decoder  自定义解码器（继承netty的ByteToMessageDecoder）
- *   使用 RpcDecoder 提供 RPC 解码，只需扩展 Netty 的 ByteToMessageDecoder 抽象类的 decode 方法即可
+ * RPC Decoder  自定义解码器（继承netty的MessageToMessageDecoder）
+ *   使用 RpcDecoder 提供 RPC 解码，只需扩展 Netty 的 MessageToMessageDecoder 抽象类的 decode 方法即可
+ *   帧格式见 {@link RpcHeader}，根据帧头中的消息类型决定反序列化成RpcRequest、RpcResponse还是RpcHandshake
+ *   分片帧先收集到一个CompositeByteBuf中（只引用各帧的内存，不拷贝成连续的大数组），收到最后一片后再反序列化
+ *   消息体解不出来时不能只打日志丢掉，否则调用方要等到超时：请求回复一个错误响应，响应交给客户端处理器让对应的请求失败；
+ *   帧头本身不对（魔数、消息类型、压缩方式）说明连接上的数据已经不可信，抛出异常由处理器关闭连接
  * @author luxiaoxun
  */
-public class RpcDecoder extends ByteToMessageDecoder {
+public class RpcDecoder extends MessageToMessageDecoder<ByteBuf> {
     private static final Logger logger = LoggerFactory.getLogger(RpcDecoder.class);
-    private Class<?> genericClass;  //RpcRequest.class或者RpcResponse.class
     private Serializer serializer;  //序列化器，默认采用kryo Serializer，进行序列化和反序列
+    private final int maxMessageLength;  //分片重组后消息体的最大长度
 
-    public RpcDecoder(Class<?> genericClass, Serializer serializer) {
-        this.genericClass = genericClass;
+    //正在重组的分片消息，一个消息的所有分片由编码器连续写出，所以同一时刻只会有一个
+    private CompositeByteBuf chunks;
+    private long chunkRequestId;
+
+    public RpcDecoder(Serializer serializer) {
         this.serializer = serializer;
+        this.maxMessageLength = RpcHeader.maxMessageLength();
     }
 
 //    本项目就是利用 “消息长度 + 消息内容” 方式解决TCP粘包、拆包问题的。
-//    所以在解码时要判断数据是否够长度读取，没有不够说明数据没有准备好，继续读取数据并解码，这里这种方式可以获取一个个完整的数据包
+//    拆包由前面的LengthFieldBasedFrameDecoder完成，并去掉了长度字段，这里拿到的in就是一个完整的帧（帧头 + 消息体）
 
     /**
-     * ctx是当前解码的上下文对象，in为字节数据的来源，将从ByteBuf获取的字节数据转换为实际的数据类型后添加到out中。
-     * 解码：先读长度，再读数据，因为编码的时候就是先发送长度再发送数据
+     * ctx是当前解码的上下文对象，in为一个完整的帧，将从ByteBuf获取的字节数据转换为实际的数据类型后添加到out中。
+     * 解码：先读帧头，再直接从in中反序列化消息体，不再拷贝成字节数组
      * @param ctx
      * @param in
      * @param out
      * @throws Exception
      */
     @Override
-    public final void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        if (in.readableBytes() < 4) {
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.readableBytes() < RpcHeader.HEADER_LENGTH) {
+            throw new CorruptedFrameException("Invalid frame length: " + in.readableBytes());
+        }
+        short magic = in.readShort();
+        byte version = in.readByte();
+        if (magic != RpcHeader.MAGIC || version != RpcHeader.VERSION) {
+            throw new CorruptedFrameException("Invalid frame header, magic: " + magic + ", version: " + version);
+        }
+        byte type = in.readByte();
+        byte flags = in.readByte();
+        byte serializerId = in.readByte();
+        long requestId = in.readLong();
+
+        if (type == RpcHeader.TYPE_HEARTBEAT) {
+            out.add(Beat.BEAT_PING);
             return;
         }
-        in.markReaderIndex();  //标记ByteBuf读指针的位置
-        int dataLength = in.readInt();   //读取数据内容的长度
-        if (in.readableBytes() < dataLength) {  //消息内容
-            in.resetReaderIndex();  //可读取的数据长度小于请求体的，直接丢弃，并重置读指针位置
+        if (type != RpcHeader.TYPE_REQUEST && type != RpcHeader.TYPE_RESPONSE && type != RpcHeader.TYPE_HANDSHAKE) {
+            throw new CorruptedFrameException("Unknown message type: " + type);
+        }
+        if ((flags & RpcHeader.FLAG_COMPRESS_MASK) != Compressor.NONE
+                && Compressor.get((byte) (flags & RpcHeader.FLAG_COMPRESS_MASK)) == null) {
+            throw new CorruptedFrameException("Unsupported compress type: " + (flags & RpcHeader.FLAG_COMPRESS_MASK));
+        }
+        if (serializerId != serializer.getId()) {
+            //消息体解不出来，但帧头是好的，只让这一个消息失败；分片消息等到最后一片再处理
+            if ((flags & RpcHeader.FLAG_CHUNK) == 0 || (flags & RpcHeader.FLAG_LAST_CHUNK) != 0) {
+                decodeFailed(ctx, type, requestId, "unsupported serializer " + serializerId, null, out);
+            }
             return;
         }
-        byte[] data = new byte[dataLength];
-        in.readBytes(data);
+        if ((flags & RpcHeader.FLAG_CHUNK) == 0) {
+            decodeBody(ctx, type, flags, requestId, in, out);
+            return;
+        }
+
+        //分片帧
+        if (chunks == null) {
+            chunks = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);  //不合并分片，避免拷贝
+            chunkRequestId = requestId;
+        } else if (chunkRequestId != requestId) {
+            releaseChunks();
+            throw new CorruptedFrameException("Unexpected chunk of request " + requestId + " while reading request " + chunkRequestId);
+        }
+        if (chunks.readableBytes() + in.readableBytes() > maxMessageLength) {
+            releaseChunks();
+            throw new TooLongFrameException("Message of request " + requestId + " exceeds " + maxMessageLength + " bytes");
+        }
+        chunks.addComponent(true, in.readRetainedSlice(in.readableBytes()));
+        if ((flags & RpcHeader.FLAG_LAST_CHUNK) != 0) {
+            CompositeByteBuf body = chunks;
+            chunks = null;
+            try {
+                decodeBody(ctx, type, flags, requestId, body, out);
+            } finally {
+                body.release();
+            }
+        }
+    }
 
-        Object obj = null;
+    /**
+     * 解码一个完整的消息体，需要时先解压
+     */
+    private void decodeBody(ChannelHandlerContext ctx, byte type, byte flags, long requestId, ByteBuf in, List<Object> out) {
+        int compressType = flags & RpcHeader.FLAG_COMPRESS_MASK;
+        if (compressType == Compressor.NONE) {
+            deserialize(ctx, type, requestId, in, out);
+            return;
+        }
+        Compressor compressor = Compressor.get((byte) compressType);  //不支持的压缩方式在读帧头时已经拒绝
+        if (in.readableBytes() < 4) {
+            decodeFailed(ctx, type, requestId, "missing original length", null, out);
+            return;
+        }
+        int originalLength = in.readInt();
+        int compressedLength = in.readableBytes();
+        //压缩前长度来自对端，不可信：超过压缩方式能达到的最大压缩比的一定是伪造的；帧本身是完整的，只让这一个消息失败
+        if (originalLength < 0 || originalLength > maxMessageLength
+                || originalLength > (long) compressedLength * compressor.maxCompressionRatio()) {
+            decodeFailed(ctx, type, requestId, "invalid original length: " + originalLength + ", compressed length: " + compressedLength, null, out);
+            return;
+        }
+        //先按压缩后长度分配，解压时再扩容，最大不超过压缩前长度
+        ByteBuf body = ctx.alloc().buffer(Math.min(originalLength, Math.max(compressedLength, 1024) * 4), originalLength);
         try {
-            //反序列化
-            obj = serializer.deserialize(data, genericClass);  //序列化器，默认采用kryoSerializer，进行序列化和反序列
+            try {
+                compressor.decompress(in, body, originalLength);
+            } catch (Exception ex) {
+                decodeFailed(ctx, type, requestId, "decompress error: " + ex, ex, out);
+                return;
+            }
+            deserialize(ctx, type, requestId, body, out);
+        } finally {
+            body.release();
+        }
+    }
 
-            out.add(obj);  //将反序列化生成的对象，放入集合中
+    private void deserialize(ChannelHandlerContext ctx, byte type, long requestId, ByteBuf in, List<Object> out) {
+        Object message;
+        try {
+            //反序列化，序列化器默认采用kryoSerializer
+            if (type == RpcHeader.TYPE_REQUEST) {
+                RpcRequest request = (RpcRequest) serializer.deserialize(in, RpcRequest.class);
+                request.setRequestId(requestId);
+                message = request;
+            } else if (type == RpcHeader.TYPE_RESPONSE) {
+                RpcResponse response = (RpcResponse) serializer.deserialize(in, RpcResponse.class);
+                response.setRequestId(requestId);
+                message = response;
+            } else {
+                message = serializer.deserialize(in, RpcHandshake.class);
+            }
         } catch (Exception ex) {
-            logger.error("Decode error: " + ex.toString());
+            decodeFailed(ctx, type, requestId, ex.toString(), ex, out);
+            return;
+        }
+        out.add(message);  //将反序列化生成的对象，放入集合中
+    }
+
+    /**
+     * 一个消息的消息体解码失败：请求直接回复错误响应，响应转成错误响应交给客户端处理器，握手失败则关闭连接
+     */
+    private void decodeFailed(ChannelHandlerContext ctx, byte type, long requestId, String error, Throwable cause, List<Object> out) {
+        logger.error("Decode error of message " + requestId + ", type " + type + ": " + error, cause);
+        if (type == RpcHeader.TYPE_REQUEST) {
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(requestId);
+            response.setError("Decode request error: " + error);
+            ctx.channel().writeAndFlush(response);  //从pipeline尾部写出，经过编码器
+        } else if (type == RpcHeader.TYPE_RESPONSE) {
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(requestId);
+            response.setError("Decode response error: " + error);
+            out.add(response);  //客户端处理器据此让对应的RpcFuture失败
+        } else {
+            throw new CorruptedFrameException("Decode handshake error: " + error, cause);
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseChunks();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseChunks();
+        super.handlerRemoved(ctx);
+    }
+
+    private void releaseChunks() {
+        if (chunks != null) {
+            chunks.release();
+            chunks = null;
+        }
+    }
 }
@@ -1,45 +1,157 @@
 package com.netty.rpc.codec;
 
+import com.netty.rpc.compress.Compressor;
+import com.netty.rpc.config.RpcConfig;
 import com.netty.rpc.serializer.Serializer;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.TooLongFrameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
- * RPC Encoder  自定义编码器（继承netty的MessageToByteEncoder）
- * 使用 RpcEncoder 提供 RPC 编码，只需扩展 Netty 的 MessageToByteEncoder 抽象类的 encode 方法即可，
- *
+ * RPC Encoder  自定义编码器（继承netty的MessageToMessageEncoder）
+ * 使用 RpcEncoder 提供 RPC 编码，帧格式见 {@link RpcHeader}
+ * 每个连接一个编码器，握手协商出压缩方式后通过setCompressor设置，之后超过阈值的消息体会被压缩
+ * 消息体超过一帧能容纳的大小时拆成多个分片帧，分片直接引用序列化后的缓冲区，不再拷贝
  *
  * @author luxiaoxun
  */
-public class RpcEncoder extends MessageToByteEncoder {
+public class RpcEncoder extends MessageToMessageEncoder<Object> {
     private static final Logger logger = LoggerFactory.getLogger(RpcEncoder.class);
-    private Class<?> genericClass;    ////RpcRequest.class或者RpcResponse.class
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 2048;
+
     private Serializer serializer;   //序列化器
+    private volatile Compressor compressor;  //握手协商出的压缩方式，null表示不压缩
+    private final int compressThreshold;  //消息体超过这个字节数才压缩
+    private final int maxChunkLength;  //一帧最多携带的消息体字节数
+    private final int maxMessageLength;  //消息体的最大长度，和对端解码器的限制相同
 
-    public RpcEncoder(Class<?> genericClass, Serializer serializer) {
-        this.genericClass = genericClass;
+    public RpcEncoder(Serializer serializer) {
         this.serializer = serializer;
+        this.compressThreshold = RpcConfig.getInt(RpcConfig.COMPRESS_THRESHOLD, DEFAULT_COMPRESS_THRESHOLD);
+        this.maxChunkLength = RpcHeader.maxFrameLength() - RpcHeader.LENGTH_FIELD_LENGTH - RpcHeader.HEADER_LENGTH;
+        this.maxMessageLength = RpcHeader.maxMessageLength();
+    }
+
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
     }
 
     /**
-     *   功能：把对象in采用序列化生成字节数组，然后作为ByteBuf输出。
+     * 只编码RPC消息，其他消息（例如关闭连接时写的空ByteBuf）直接透传
+     */
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof RpcRequest || msg instanceof RpcResponse || msg instanceof Beat || msg instanceof RpcHandshake;
+    }
+
+    /**
+     *   功能：把对象in直接序列化到从池中分配的（直接内存）缓冲区中作为消息体，需要时压缩，
+     *   再为消息体加上帧头。消息体过大时按maxChunkLength拆成多帧，每帧都是 帧头 + 消息体的一个切片，
+     *   由Netty一次性聚合写出，消息体不需要再拷贝。
      * @param ctx
      * @param in
      * @param out
      * @throws Exception
      */
     @Override
-    public void encode(ChannelHandlerContext ctx, Object in, ByteBuf out) throws Exception {
-        if (genericClass.isInstance(in)) {
-            try {
-                byte[] data = serializer.serialize(in);  //默认采用kryo序列化
-                out.writeInt(data.length);  //先写消息的长度
-                out.writeBytes(data);  //再写消息的数据
-            } catch (Exception ex) {
-                logger.error("Encode error: " + ex.toString());
+    protected void encode(ChannelHandlerContext ctx, Object in, List<Object> out) throws Exception {
+        byte type;
+        long requestId;
+        if (in instanceof RpcRequest) {
+            type = RpcHeader.TYPE_REQUEST;
+            requestId = ((RpcRequest) in).getRequestId();
+        } else if (in instanceof RpcResponse) {
+            type = RpcHeader.TYPE_RESPONSE;
+            requestId = ((RpcResponse) in).getRequestId();
+        } else if (in instanceof RpcHandshake) {
+            type = RpcHeader.TYPE_HANDSHAKE;
+            requestId = 0;
+        } else {
+            //心跳没有消息体
+            out.add(header(ctx, RpcHeader.TYPE_HEARTBEAT, 0, 0, 0));
+            return;
+        }
+
+        ByteBuf body = ctx.alloc().ioBuffer();
+        try {
+            serializer.serialize(in, body);  //默认采用kryo序列化
+            if (body.readableBytes() > maxMessageLength) {
+                //发出去也会被对端拒绝并断开连接，连接上其他请求都会失败；在这里只让这一次写失败
+                throw new TooLongFrameException("Message of request " + requestId + " is " + body.readableBytes()
+                        + " bytes, exceeds " + maxMessageLength);
+            }
+            int flags = 0;
+            Compressor compressor = this.compressor;
+            //握手消息不压缩，对端在握手完成前也能解码
+            if (compressor != null && type != RpcHeader.TYPE_HANDSHAKE && body.readableBytes() > compressThreshold) {
+                ByteBuf compressed = compress(ctx, compressor, body);
+                if (compressed != null) {
+                    body.release();
+                    body = compressed;
+                    flags = compressor.getId();
+                }
+            }
+
+            int bodyLength = body.readableBytes();
+            if (bodyLength <= maxChunkLength) {
+                out.add(header(ctx, type, flags, requestId, bodyLength));
+                out.add(body.retain());
+                return;
+            }
+            //分片：每一帧都带相同的type、flags和requestId，最后一帧带FLAG_LAST_CHUNK
+            while (body.isReadable()) {
+                int chunkLength = Math.min(maxChunkLength, body.readableBytes());
+                int chunkFlags = flags | RpcHeader.FLAG_CHUNK;
+                if (chunkLength == body.readableBytes()) {
+                    chunkFlags |= RpcHeader.FLAG_LAST_CHUNK;
+                }
+                out.add(header(ctx, type, chunkFlags, requestId, chunkLength));
+                out.add(body.readRetainedSlice(chunkLength));
+            }
+            logger.debug("Encode message {} of {} bytes into chunks", requestId, bodyLength);
+        } catch (Exception ex) {
+            logger.error("Encode error of message " + requestId, ex);
+            throw ex;
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * 长度字段 + 帧头，长度为帧头加本帧消息体的长度
+     */
+    private ByteBuf header(ChannelHandlerContext ctx, byte type, int flags, long requestId, int bodyLength) {
+        ByteBuf header = ctx.alloc().ioBuffer(RpcHeader.LENGTH_FIELD_LENGTH + RpcHeader.HEADER_LENGTH);
+        header.writeInt(RpcHeader.HEADER_LENGTH + bodyLength);
+        header.writeShort(RpcHeader.MAGIC);
+        header.writeByte(RpcHeader.VERSION);
+        header.writeByte(type);
+        header.writeByte(flags);
+        header.writeByte(serializer.getId());
+        header.writeLong(requestId);
+        return header;
+    }
+
+    /**
+     * 压缩消息体，压缩后为：压缩前长度 + 压缩数据；压缩后没有变小则返回null
+     */
+    private static ByteBuf compress(ChannelHandlerContext ctx, Compressor compressor, ByteBuf body) {
+        int bodyLength = body.readableBytes();
+        ByteBuf compressed = ctx.alloc().ioBuffer(bodyLength / 2);
+        boolean success = false;
+        try {
+            compressed.writeInt(bodyLength);  //压缩前长度，解压时用
+            compressor.compress(body, body.readerIndex(), bodyLength, compressed);
+            success = compressed.readableBytes() < bodyLength;
+            return success ? compressed : null;
+        } finally {
+            if (!success) {
+                compressed.release();
             }
         }
     }
@@ -0,0 +1,34 @@
+package com.netty.rpc.codec;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 连接握手消息：客户端连接建立后发送一个空的握手消息，
+ * 服务端回复自己所有服务方法的id（key为ServiceUtil.makeMethodKey生成的methodKey），
+ * 之后客户端调用这些方法时只需发送方法id和参数。
+ * 握手时同时协商压缩方式：客户端在compressType中提出自己想用的压缩方式，服务端回复它同意的压缩方式（不支持时为0）。
+ */
+public class RpcHandshake implements Serializable {
+    private static final long serialVersionUID = 3468279519380362410L;
+
+    private Map<String, Integer> methodIds = new HashMap<>();
+    private byte compressType;
+
+    public Map<String, Integer> getMethodIds() {
+        return methodIds;
+    }
+
+    public void setMethodIds(Map<String, Integer> methodIds) {
+        this.methodIds = methodIds;
+    }
+
+    public byte getCompressType() {
+        return compressType;
+    }
+
+    public void setCompressType(byte compressType) {
+        this.compressType = compressType;
+    }
+}
@@ -0,0 +1,61 @@
+package com.netty.rpc.codec;
+
+import com.netty.rpc.config.RpcConfig;
+
+/**
+ * RPC 帧头定义，所有消息在网络上都按如下格式传输：
+ * <pre>
+ * +--------+-------+---------+--------+-------+------------+-----------+--------------+
+ * | length | magic | version |  type  | flags | serializer | requestId |     body     |
+ * | 4 byte | 2byte | 1 byte  | 1 byte | 1byte |   1 byte   |  8 byte   | length - 14  |
+ * +--------+-------+---------+--------+-------+------------+-----------+--------------+
+ * </pre>
+ * length 为长度字段之后的字节数（帧头 + 消息体），不包含自身的 4 个字节。
+ * 请求和响应通过帧头中的 requestId（每个连接单调递增的 long）关联，不再在消息体中序列化字符串 id；
+ * 心跳、握手、请求、响应通过 type 区分，心跳消息没有消息体。
+ * flags 的低两位为消息体的压缩方式（见 {@link com.netty.rpc.compress.Compressor}），
+ * 压缩后的消息体为：压缩前长度(4 byte) + 压缩数据。
+ * 一帧（含长度字段）最大为 rpc.frame.max.length 字节，更大的消息体拆成多个分片帧连续发送，
+ * 分片帧带 FLAG_CHUNK，最后一片再带 FLAG_LAST_CHUNK，接收端按 requestId 重新拼成完整的消息体。
+ */
+public final class RpcHeader {
+    public static final short MAGIC = (short) 0x4C52;  // "LR"
+    public static final byte VERSION = 1;
+
+    public static final int LENGTH_FIELD_LENGTH = 4;
+    // 长度字段之后的帧头长度：magic(2) + version(1) + type(1) + flags(1) + serializer(1) + requestId(8)
+    public static final int HEADER_LENGTH = 14;
+
+    // 消息类型
+    public static final byte TYPE_REQUEST = 1;
+    public static final byte TYPE_RESPONSE = 2;
+    public static final byte TYPE_HEARTBEAT = 3;
+    public static final byte TYPE_HANDSHAKE = 4;
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 65536;
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    // flags
+    public static final int FLAG_COMPRESS_MASK = 0x03;
+    public static final int FLAG_CHUNK = 0x04;
+    public static final int FLAG_LAST_CHUNK = 0x08;
+
+    /**
+     * 一帧的最大长度（含长度字段），LengthFieldBasedFrameDecoder和编码器分片都按这个值
+     */
+    public static int maxFrameLength() {
+        int maxFrameLength = RpcConfig.getInt(RpcConfig.FRAME_MAX_LENGTH, DEFAULT_MAX_FRAME_LENGTH);
+        //至少要能放下帧头和一些消息体
+        return Math.max(maxFrameLength, 1024);
+    }
+
+    /**
+     * 分片重组后完整消息体的最大长度
+     */
+    public static int maxMessageLength() {
+        return RpcConfig.getInt(RpcConfig.MESSAGE_MAX_LENGTH, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
+    private RpcHeader() {
+    }
+}
@@ -10,21 +10,34 @@ import java.io.Serializable;
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = -2524587347775862771L;
 
-    private String requestId;  //客户端请求id
+    // 客户端请求id，由帧头携带，不参与消息体的序列化
+    private transient long requestId;
+    // 服务端在连接握手时为每个方法分配的id，大于0时服务端直接按id分派，此时className、methodName、parameterTypes、version都不需要发送
+    private int methodId;
     private String className;  //类名
     private String methodName;  //方法名
     private Class<?>[] parameterTypes;  //参数类型
     private Object[] parameters;  //参数值
     private String version;   //版本
+    // 客户端还愿意等待的时间（毫秒），0表示不限制；使用相对时间，不依赖客户端和服务端的时钟一致
+    private long timeout;
 
-    public String getRequestId() {
+    public long getRequestId() {
         return requestId;
     }
 
-    public void setRequestId(String requestId) {
+    public void setRequestId(long requestId) {
         this.requestId = requestId;
     }
 
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+
     public String getClassName() {
         return className;
     }
@@ -64,4 +77,12 @@ public class RpcRequest implements Serializable {
     public void setVersion(String version) {
         this.version = version;
     }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 }
\ No newline at end of file
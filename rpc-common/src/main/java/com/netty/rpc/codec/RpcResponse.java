@@ -10,19 +10,21 @@ import java.io.Serializable;
 public class RpcResponse implements Serializable {
     private static final long serialVersionUID = 8215493329459772524L;
 
-    private String requestId;    //客户端请求id
+    // 客户端请求id，由帧头携带，不参与消息体的序列化
+    private transient long requestId;
     private String error;   //错误信息
     private Object result;    //响应结果
+    private boolean overloaded;  //服务端过载，请求没有执行就被拒绝，客户端可以重试
 
     public boolean isError() {
         return error != null;
     }
 
-    public String getRequestId() {
+    public long getRequestId() {
         return requestId;
     }
 
-    public void setRequestId(String requestId) {
+    public void setRequestId(long requestId) {
         this.requestId = requestId;
     }
 
@@ -34,6 +36,14 @@ public class RpcResponse implements Serializable {
         this.error = error;
     }
 
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public void setOverloaded(boolean overloaded) {
+        this.overloaded = overloaded;
+    }
+
     public Object getResult() {
         return result;
     }
@@ -0,0 +1,125 @@
+package com.netty.rpc.codec;
+
+import com.netty.rpc.config.RpcConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个连接的写队列：多个线程（客户端的调用线程、服务端的业务线程）写的消息先放入无锁队列，
+ * 由一个EventLoop任务批量write，最后只flush一次。
+ * 直接调用channel.writeAndFlush时，每个消息都要向EventLoop提交一个任务并flush一次（一次write系统调用），
+ * 并发高时合并后任务数和系统调用次数都能大幅减少。
+ * 一批最多写rpc.write.batch.size个消息，超过的留给下一个任务，避免一个连接长时间占用EventLoop。
+ * rpc.write.flush.delay大于0时，第一个消息入队后最多等待这么多微秒再写出，等待期间攒满一批则立即写出。
+ * EventLoop拒绝任务（已关闭）时，队列中的消息全部以失败通知。
+ */
+public class WriteQueue {
+    private static final int DEFAULT_BATCH_SIZE = 128;
+
+    private final Channel channel;
+    private final int batchSize;
+    private final long flushDelayMicros;
+    private final Queue<PendingWrite> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);  //是否已经提交了写任务
+    private final AtomicInteger queued = new AtomicInteger();  //队列中的消息数
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public WriteQueue(Channel channel) {
+        this.channel = channel;
+        this.batchSize = Math.max(1, RpcConfig.getInt(RpcConfig.WRITE_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.flushDelayMicros = Math.max(0, RpcConfig.getInt(RpcConfig.WRITE_FLUSH_DELAY, 0));
+    }
+
+    /**
+     * 写入消息，不等待写完
+     * @param msg
+     * @return 写完成（或失败）时通知的future
+     */
+    public ChannelFuture write(Object msg) {
+        ChannelPromise promise = channel.newPromise();
+        queue.add(new PendingWrite(msg, promise));
+        int size = queued.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            submit(flushDelayMicros);
+        } else if (flushDelayMicros > 0 && size == batchSize) {
+            //攒满一批，不再等待延迟任务；多出的任务发现队列为空时什么也不做
+            submit(0);
+        }
+        return promise;
+    }
+
+    /**
+     * 向EventLoop提交写任务，EventLoop拒绝时重置状态并让队列中的消息失败，否则scheduled一直为true，之后的消息再也不会写出
+     */
+    private void submit(long delayMicros) {
+        try {
+            if (delayMicros > 0) {
+                channel.eventLoop().schedule(flushTask, delayMicros, TimeUnit.MICROSECONDS);
+            } else {
+                channel.eventLoop().execute(flushTask);
+            }
+        } catch (Throwable t) {
+            scheduled.set(false);
+            failAll(t);
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        PendingWrite pending;
+        while ((pending = queue.poll()) != null) {
+            queued.decrementAndGet();
+            ReferenceCountUtil.release(pending.msg);
+            pending.promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * 在EventLoop中执行：写出队列中的消息，然后flush一次
+     */
+    private void flush() {
+        int written = 0;
+        PendingWrite pending;
+        while (written < batchSize && (pending = queue.poll()) != null) {
+            channel.write(pending.msg, pending.promise);
+            written++;
+        }
+        if (written > 0) {
+            queued.addAndGet(-written);
+            channel.flush();
+        }
+        if (!queue.isEmpty()) {
+            //这一批没写完，放到EventLoop任务队列末尾，让其他连接也有机会执行
+            submit(0);
+            return;
+        }
+        scheduled.set(false);
+        //置为false之前可能有线程加入了消息但没有提交任务
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            submit(0);
+        }
+    }
+
+    private static final class PendingWrite {
+        final Object msg;
+        final ChannelPromise promise;
+
+        PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.netty.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 消息体压缩，所有压缩方式通过继承这个抽象类，重写compress和decompress方法
+ * 压缩方式的id写在帧头flags的低两位，0表示消息体没有压缩
+ */
+public abstract class Compressor {
+    public static final byte NONE = 0;
+    public static final byte DEFLATE = 1;
+    public static final byte LZ4 = 2;
+
+    public abstract byte getId();
+
+    public abstract String getName();
+
+    /**
+     * 把in中从index开始的length个字节压缩后写入out的写指针处
+     */
+    public abstract void compress(ByteBuf in, int index, int length, ByteBuf out);
+
+    /**
+     * 把in的可读字节解压后写入out，originalLength为压缩前的长度
+     */
+    public abstract void decompress(ByteBuf in, ByteBuf out, int originalLength);
+
+    /**
+     * 这种压缩方式理论上的最大压缩比，解码时压缩前长度超过 压缩后长度 * 最大压缩比 的消息一定是伪造的
+     */
+    public abstract int maxCompressionRatio();
+
+    /**
+     * 按id获取压缩方式，不支持时返回null
+     */
+    public static Compressor get(byte id) {
+        switch (id) {
+            case DEFLATE:
+                return DeflateCompressor.INSTANCE;
+            case LZ4:
+                return Lz4Compressor.INSTANCE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 按名称获取压缩方式（rpc.compress.type的值），none或不支持时返回null
+     */
+    public static Compressor get(String name) {
+        if (DeflateCompressor.INSTANCE.getName().equalsIgnoreCase(name)) {
+            return DeflateCompressor.INSTANCE;
+        } else if (Lz4Compressor.INSTANCE.getName().equalsIgnoreCase(name)) {
+            return Lz4Compressor.INSTANCE;
+        }
+        return null;
+    }
+}
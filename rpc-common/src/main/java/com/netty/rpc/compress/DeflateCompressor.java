@@ -0,0 +1,106 @@
+package com.netty.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JDK自带的Deflate压缩，压缩率比LZ4高但更慢，不需要额外依赖。
+ * Deflater/Inflater按线程复用，JDK8的Deflater只支持字节数组，直接内存需要经过一个临时数组
+ */
+public class DeflateCompressor extends Compressor {
+    public static final DeflateCompressor INSTANCE = new DeflateCompressor();
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private DeflateCompressor() {
+    }
+
+    @Override
+    public byte getId() {
+        return DEFLATE;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int maxCompressionRatio() {
+        return 1032;
+    }
+
+    @Override
+    public void compress(ByteBuf in, int index, int length, ByteBuf out) {
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = BUFFER.get();
+        try {
+            if (in.hasArray()) {
+                deflater.setInput(in.array(), in.arrayOffset() + index, length);
+            } else {
+                byte[] input = new byte[length];
+                in.getBytes(index, input);
+                deflater.setInput(input);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.writeBytes(buffer, 0, n);
+            }
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int originalLength) {
+        Inflater inflater = INFLATER.get();
+        byte[] buffer = BUFFER.get();
+        int length = in.readableBytes();
+        try {
+            if (in.hasArray()) {
+                inflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                byte[] input = new byte[length];
+                in.getBytes(in.readerIndex(), input);
+                inflater.setInput(input);
+            }
+            //按实际解压出的数据逐步扩容，不按帧头中的长度预先分配
+            int remaining = originalLength;
+            while (remaining > 0) {
+                int n = inflater.inflate(buffer, 0, Math.min(buffer.length, remaining));
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Deflate data is shorter than original length " + originalLength);
+                }
+                out.writeBytes(buffer, 0, n);
+                remaining -= n;
+            }
+            in.skipBytes(length - inflater.getRemaining());
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Invalid deflate data: " + e.getMessage(), e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
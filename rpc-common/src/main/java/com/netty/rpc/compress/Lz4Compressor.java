@@ -0,0 +1,70 @@
+package com.netty.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4压缩，速度快，适合大部分场景。直接在ByteBuf的内存上压缩和解压，不拷贝成字节数组
+ * 解压的是网络上收到的数据，使用会检查边界的safeDecompressor；fastDecompressor遇到畸形数据会越界读，native实现下会导致JVM崩溃
+ */
+public class Lz4Compressor extends Compressor {
+    public static final Lz4Compressor INSTANCE = new Lz4Compressor();
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    private Lz4Compressor() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public byte getId() {
+        return LZ4;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public int maxCompressionRatio() {
+        return 255;
+    }
+
+    @Override
+    public void compress(ByteBuf in, int index, int length, ByteBuf out) {
+        int maxLength = compressor.maxCompressedLength(length);
+        out.ensureWritable(maxLength);
+        ByteBuffer src = in.nioBuffer(index, length);
+        ByteBuffer dest = out.nioBuffer(out.writerIndex(), maxLength);
+        int compressedLength = compressor.compress(src, src.position(), length, dest, dest.position(), maxLength);
+        out.writerIndex(out.writerIndex() + compressedLength);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int originalLength) {
+        out.ensureWritable(originalLength);
+        int length = in.readableBytes();
+        ByteBuffer src = in.nioBuffer(in.readerIndex(), length);
+        ByteBuffer dest = out.nioBuffer(out.writerIndex(), originalLength);
+        int decompressedLength;
+        try {
+            decompressedLength = decompressor.decompress(src, src.position(), length, dest, dest.position(), originalLength);
+        } catch (LZ4Exception e) {
+            throw new IllegalStateException("Invalid lz4 data: " + e.getMessage(), e);
+        }
+        if (decompressedLength != originalLength) {
+            throw new IllegalStateException("Lz4 data decompressed to " + decompressedLength + " bytes, expected " + originalLength);
+        }
+        in.skipBytes(length);
+        out.writerIndex(out.writerIndex() + originalLength);
+    }
+}
@@ -0,0 +1,122 @@
+package com.netty.rpc.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * 读取classpath下的rpc.properties，客户端和服务端共用，没有配置的项使用默认值。
+ * 同名的JVM系统属性（-Dkey=value）优先级更高。
+ */
+public final class RpcConfig {
+    private static final Logger logger = LoggerFactory.getLogger(RpcConfig.class);
+    private static final String CONFIG_FILE = "rpc.properties";
+
+    // 压缩方式：none、deflate、lz4，由客户端在握手时提出，服务端同意后双方都按此压缩
+    public static final String COMPRESS_TYPE = "rpc.compress.type";
+    // 消息体超过这个字节数才压缩
+    public static final String COMPRESS_THRESHOLD = "rpc.compress.threshold";
+    // 一帧（含长度字段）的最大字节数，超过的消息拆成多帧发送
+    public static final String FRAME_MAX_LENGTH = "rpc.frame.max.length";
+    // 分片重组后一个消息的最大字节数
+    public static final String MESSAGE_MAX_LENGTH = "rpc.message.max.length";
+    // 合并写时一个EventLoop任务最多写出的消息数，写完后flush一次
+    public static final String WRITE_BATCH_SIZE = "rpc.write.batch.size";
+    // 合并写时第一个消息入队后最多等待的微秒数，等待期间攒满一批立即写出；0表示不等待
+    public static final String WRITE_FLUSH_DELAY = "rpc.write.flush.delay";
+    // 是否优先使用epoll，不可用时自动退回NIO
+    public static final String TRANSPORT_EPOLL = "rpc.transport.epoll";
+    // epoll是否使用边缘触发，false为水平触发
+    public static final String TRANSPORT_EPOLL_EDGE_TRIGGERED = "rpc.transport.epoll.edge.triggered";
+    // 服务端监听同一端口的acceptor数量，大于1时开启SO_REUSEPORT（只有epoll支持），由内核在多个acceptor间分配连接
+    public static final String SERVER_ACCEPTORS = "rpc.server.acceptors";
+    // 服务端IO线程数，0表示Netty默认值（CPU核数 * 2）
+    public static final String SERVER_IO_THREADS = "rpc.server.io.threads";
+    // 服务端执行请求的方式：pool（线程池）或virtual（每个请求一个虚拟线程，需要Java 21以上，不支持时退回线程池）
+    public static final String SERVER_EXECUTOR = "rpc.server.executor";
+    // 虚拟线程模式下同时执行的请求数上限，超过时返回过载响应
+    public static final String SERVER_VIRTUAL_MAX_CONCURRENCY = "rpc.server.virtual.max.concurrency";
+    // 服务端自适应并发限制：none（不限制）或gradient（根据响应时间估计并发上限，超过时返回过载响应）
+    public static final String SERVER_CONCURRENCY_LIMIT = "rpc.server.concurrency.limit";
+    // 自适应并发限制的初始上限和上限的取值范围
+    public static final String SERVER_CONCURRENCY_LIMIT_INITIAL = "rpc.server.concurrency.limit.initial";
+    public static final String SERVER_CONCURRENCY_LIMIT_MIN = "rpc.server.concurrency.limit.min";
+    public static final String SERVER_CONCURRENCY_LIMIT_MAX = "rpc.server.concurrency.limit.max";
+    // 客户端IO线程数
+    public static final String CLIENT_IO_THREADS = "rpc.client.io.threads";
+    public static final String TCP_NODELAY = "rpc.tcp.nodelay";
+    public static final String TCP_KEEPALIVE = "rpc.tcp.keepalive";
+    public static final String TCP_BACKLOG = "rpc.tcp.backlog";
+    // 发送和接收缓冲区大小，0表示使用系统默认值
+    public static final String TCP_SNDBUF = "rpc.tcp.sndbuf";
+    public static final String TCP_RCVBUF = "rpc.tcp.rcvbuf";
+    public static final String CONNECT_TIMEOUT = "rpc.client.connect.timeout";
+    // 每个服务提供者节点的连接数：初始建立min个，最空闲的连接上等待响应的请求数达到grow.threshold时再建立一个，最多max个
+    public static final String CLIENT_CONNECTIONS_MIN = "rpc.client.connections.min";
+    public static final String CLIENT_CONNECTIONS_MAX = "rpc.client.connections.max";
+    public static final String CLIENT_CONNECTIONS_GROW_THRESHOLD = "rpc.client.connections.grow.threshold";
+    // 请求超时时间（毫秒），在后面加上 .接口全名.方法名 可以按方法覆盖
+    public static final String REQUEST_TIMEOUT = "rpc.client.request.timeout";
+    // RpcFuture回调的默认执行器：pool（客户端共享线程池）、direct（直接在IO线程上执行）或virtual（每个回调一个虚拟线程）
+    public static final String CLIENT_CALLBACK_EXECUTOR = "rpc.client.callback.executor";
+    // 每个连接等待响应的请求表的初始容量（取2的幂），等待的请求超过容量的3/4或冲突的请求超过1/16时翻倍，请求都返回后逐步缩回初始容量
+    public static final String CLIENT_INFLIGHT_CAPACITY = "rpc.client.inflight.capacity";
+    // 负载均衡策略：roundrobin（默认）、random、lru、lfu、consistenthash、p2c、peakewma
+    public static final String CLIENT_LOADBALANCE = "rpc.client.loadbalance";
+    // 一致性哈希中每个节点的虚拟节点数
+    public static final String CLIENT_CONSISTENT_HASH_REPLICAS = "rpc.client.consistent.hash.replicas";
+    // 响应时间峰值EWMA的衰减时间（毫秒），节点恢复后响应时间估计大约在这个时间内回落
+    public static final String CLIENT_PEAK_EWMA_DECAY = "rpc.client.peak.ewma.decay";
+    // 所有节点都还没有响应时间时新节点使用的初始响应时间（毫秒）；有其他节点的响应时间时使用它们的中位数
+    public static final String CLIENT_PEAK_EWMA_INITIAL = "rpc.client.peak.ewma.initial";
+
+    private static final Properties properties = load();
+
+    private RpcConfig() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid int value for {}: {}, use default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null || value.isEmpty() ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = RpcConfig.class.getClassLoader();
+        }
+        try (InputStream in = classLoader.getResourceAsStream(CONFIG_FILE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            logger.warn("Load {} error: {}", CONFIG_FILE, e.getMessage());
+        }
+        return properties;
+    }
+}
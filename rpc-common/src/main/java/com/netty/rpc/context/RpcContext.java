@@ -0,0 +1,52 @@
+package com.netty.rpc.context;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前线程正在处理的RPC请求的上下文，服务端执行服务方法前设置，执行完清除。
+ * 客户端的超时时间随请求发送到服务端，服务端按收到请求的时间算出截止时间；服务方法中可以查询剩余的时间，
+ * 在服务方法中再调用其他服务时，请求的超时时间不会超过剩余的时间，剩余时间用完时不再发送请求
+ */
+public final class RpcContext {
+    //截止时间（System.nanoTime），0表示没有截止时间
+    private static final ThreadLocal<long[]> DEADLINE = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private RpcContext() {
+    }
+
+    /**
+     * 当前请求是否有截止时间
+     */
+    public static boolean hasDeadline() {
+        return DEADLINE.get()[0] != 0;
+    }
+
+    /**
+     * 当前请求剩余的时间（毫秒），已经超时时返回0或负数
+     * @return 没有截止时间时返回Long.MAX_VALUE
+     */
+    public static long getRemainingMillis() {
+        long deadline = DEADLINE.get()[0];
+        if (deadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * 设置当前请求的截止时间，由服务端在执行服务方法前调用
+     * @param deadlineNanos System.nanoTime表示的截止时间，0表示没有截止时间
+     */
+    public static void setDeadline(long deadlineNanos) {
+        DEADLINE.get()[0] = deadlineNanos;
+    }
+
+    public static void clear() {
+        DEADLINE.get()[0] = 0;
+    }
+}
@@ -0,0 +1,16 @@
+package com.netty.rpc.exception;
+
+/**
+ * RPC调用失败：服务端返回错误、发送失败、连接断开等
+ */
+public class RpcException extends RuntimeException {
+    private static final long serialVersionUID = -1742331846393743206L;
+
+    public RpcException(String message) {
+        super(message);
+    }
+
+    public RpcException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package com.netty.rpc.exception;
+
+/**
+ * 服务端过载，请求没有被执行就被拒绝了，可以重试（最好换一个节点或稍后重试）
+ */
+public class RpcOverloadedException extends RpcException {
+    private static final long serialVersionUID = -3320129457318514917L;
+
+    public RpcOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.netty.rpc.exception;
+
+/**
+ * 请求在超时时间内没有收到响应
+ */
+public class RpcTimeoutException extends RpcException {
+    private static final long serialVersionUID = 6205925417376367405L;
+
+    public RpcTimeoutException(String message) {
+        super(message);
+    }
+}
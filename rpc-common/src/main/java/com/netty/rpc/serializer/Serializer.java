@@ -1,10 +1,38 @@
 package com.netty.rpc.serializer;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  *  所有序列化方式，通过继承这个抽象类，重写serialize和deserialize方法，自行扩展
  */
 public abstract class Serializer {
+    // 序列化器id，写在帧头中，解码时用于校验对端使用的序列化方式
+    public static final byte KRYO = 1;
+    public static final byte PROTOSTUFF = 2;
+    public static final byte HESSIAN = 3;
+    public static final byte HESSIAN1 = 4;
+
+    public abstract byte getId();
+
     public abstract <T> byte[] serialize(T obj);
 
+    /**
+     * 把对象直接序列化写入out（编码器分配的池化缓冲区）的写指针处，避免先生成字节数组再拷贝一次。
+     * 默认实现退化为 serialize(obj) 再写入，子类可以重写
+     */
+    public <T> void serialize(T obj, ByteBuf out) {
+        out.writeBytes(serialize(obj));
+    }
+
     public abstract <T> Object deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 直接从in（解码器拿到的帧，堆内存或直接内存均可）的可读字节中反序列化，避免先拷贝成字节数组。
+     * 默认实现退化为拷贝出字节数组再反序列化，子类可以重写
+     */
+    public <T> Object deserialize(ByteBuf in, Class<T> clazz) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        return deserialize(bytes, clazz);
+    }
 }
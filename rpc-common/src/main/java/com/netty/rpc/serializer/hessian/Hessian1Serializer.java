@@ -3,6 +3,9 @@ package com.netty.rpc.serializer.hessian;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
 import com.netty.rpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -10,6 +13,11 @@ import java.io.IOException;
 
 public class Hessian1Serializer extends Serializer {
 
+    @Override
+    public byte getId() {
+        return HESSIAN1;
+    }
+
     @Override
     public <T> byte[] serialize(T obj) {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -35,6 +43,17 @@ public class Hessian1Serializer extends Serializer {
         }
     }
 
+    @Override
+    public <T> void serialize(T obj, ByteBuf out) {
+        HessianOutput ho = new HessianOutput(new ByteBufOutputStream(out));
+        try {
+            ho.writeObject(obj);
+            ho.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public <T> Object deserialize(byte[] bytes, Class<T> clazz) {
         ByteArrayInputStream is = new ByteArrayInputStream(bytes);
@@ -58,4 +77,14 @@ public class Hessian1Serializer extends Serializer {
         }
     }
 
+    @Override
+    public <T> Object deserialize(ByteBuf in, Class<T> clazz) {
+        HessianInput hi = new HessianInput(new ByteBufInputStream(in));
+        try {
+            return hi.readObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -3,12 +3,22 @@ package com.netty.rpc.serializer.hessian;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.netty.rpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class HessianSerializer extends Serializer {
+    // Hessian2Output内部有8K的缓冲区，每个线程复用一个，通过init重新绑定输出流
+    private static final ThreadLocal<Hessian2Output> OUTPUT = ThreadLocal.withInitial(Hessian2Output::new);
+
+    @Override
+    public byte getId() {
+        return HESSIAN;
+    }
 
     @Override
     public <T> byte[] serialize(T obj) {
@@ -36,6 +46,20 @@ public class HessianSerializer extends Serializer {
 
     }
 
+    @Override
+    public <T> void serialize(T obj, ByteBuf out) {
+        Hessian2Output ho = OUTPUT.get();
+        ho.init(new ByteBufOutputStream(out));
+        try {
+            ho.writeObject(obj);
+            ho.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            ho.reset();
+        }
+    }
+
     @Override
     public <T> Object deserialize(byte[] bytes, Class<T> clazz) {
         ByteArrayInputStream is = new ByteArrayInputStream(bytes);
@@ -59,4 +83,14 @@ public class HessianSerializer extends Serializer {
         }
     }
 
+    @Override
+    public <T> Object deserialize(ByteBuf in, Class<T> clazz) {
+        Hessian2Input hi = new Hessian2Input(new ByteBufInputStream(in));
+        try {
+            return hi.readObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -3,6 +3,7 @@ package com.netty.rpc.serializer.kryo;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.pool.KryoFactory;
 import com.esotericsoftware.kryo.pool.KryoPool;
+import com.netty.rpc.codec.RpcHandshake;
 import com.netty.rpc.codec.RpcRequest;
 import com.netty.rpc.codec.RpcResponse;
 import org.objenesis.strategy.StdInstantiatorStrategy;
@@ -17,6 +18,7 @@ public class KryoPoolFactory {
             kryo.setReferences(false);
             kryo.register(RpcRequest.class);
             kryo.register(RpcResponse.class);
+            kryo.register(RpcHandshake.class);
             Kryo.DefaultInstantiatorStrategy strategy = (Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy();
             strategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
             return kryo;
@@ -5,6 +5,9 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoPool;
 import com.netty.rpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -12,6 +15,16 @@ import java.io.IOException;
 
 public class KryoSerializer extends Serializer {
     private KryoPool pool = KryoPoolFactory.getKryoPoolInstance();  //得到单例KryoPool
+    // 每个线程复用一个Output，Output只作为写入ByteBuf前的小块暂存区，写满就flush到ByteBuf，不会随消息大小增长
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(() -> new Output(4096, -1));
+    // 堆内存的帧直接把Input指向其底层数组；直接内存的帧通过流分块读入Input自己的暂存区，两者不能共用一个Input
+    private static final ThreadLocal<Input> ARRAY_INPUT = ThreadLocal.withInitial(Input::new);
+    private static final ThreadLocal<Input> STREAM_INPUT = ThreadLocal.withInitial(() -> new Input(4096));
+
+    @Override
+    public byte getId() {
+        return KRYO;
+    }
 
     /**
      * 序列化方法，把指定对象序列化成字节数组
@@ -40,6 +53,28 @@ public class KryoSerializer extends Serializer {
         }
     }
 
+    /**
+     * 序列化方法，把指定对象直接序列化到out中
+     * @param obj
+     * @param out
+     * @param <T>
+     */
+    @Override
+    public <T> void serialize(T obj, ByteBuf out) {
+        Kryo kryo = pool.borrow();
+        Output output = OUTPUT.get();
+        output.setOutputStream(new ByteBufOutputStream(out));
+        try {
+            kryo.writeObject(output, obj);
+            output.flush();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            output.setOutputStream(null);
+            pool.release(kryo);
+        }
+    }
+
     /**
      * 反序列化方法，将字节数组反序列化成指定Class类型
      * @param bytes
@@ -67,4 +102,34 @@ public class KryoSerializer extends Serializer {
             pool.release(kryo);
         }
     }
+
+    /**
+     * 反序列化方法，直接从ByteBuf中反序列化成指定Class类型
+     * @param in
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Object deserialize(ByteBuf in, Class<T> clazz) {
+        Kryo kryo = pool.borrow();
+        Input input;
+        if (in.hasArray()) {
+            input = ARRAY_INPUT.get();
+            input.setBuffer(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes());
+        } else {
+            input = STREAM_INPUT.get();
+            input.setInputStream(new ByteBufInputStream(in));
+        }
+        try {
+            return kryo.readObject(input, clazz);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (input.getInputStream() != null) {
+                input.setInputStream(null);
+            }
+            pool.release(kryo);
+        }
+    }
 }
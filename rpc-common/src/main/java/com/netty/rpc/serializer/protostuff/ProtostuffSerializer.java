@@ -5,6 +5,9 @@ import com.dyuproject.protostuff.ProtostuffIOUtil;
 import com.dyuproject.protostuff.Schema;
 import com.dyuproject.protostuff.runtime.RuntimeSchema;
 import com.netty.rpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 
@@ -21,12 +24,21 @@ public class ProtostuffSerializer extends Serializer {
 
     private Objenesis objenesis = new ObjenesisStd(true);
 
+    // 每个线程复用一个LinkedBuffer，序列化时写满后flush到ByteBuf，反序列化直接内存的帧时作为读缓冲区
+    private static final ThreadLocal<LinkedBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+
     @SuppressWarnings("unchecked")
     private <T> Schema<T> getSchema(Class<T> cls) {
         // for thread-safe
         return (Schema<T>) cachedSchema.computeIfAbsent(cls, RuntimeSchema::createFrom);
     }
 
+    @Override
+    public byte getId() {
+        return PROTOSTUFF;
+    }
+
     /**
      * 序列化方法，把指定对象序列化成字节数组
      * @param obj
@@ -47,6 +59,27 @@ public class ProtostuffSerializer extends Serializer {
         }
     }
 
+    /**
+     * 序列化方法，把指定对象直接序列化到out中
+     * @param obj
+     * @param out
+     * @param <T>
+     */
+    @Override
+    @SuppressWarnings("unchecked")  //obj.getClass()返回Class<? extends T>，obj本身就是T，转换是安全的
+    public <T> void serialize(T obj, ByteBuf out) {
+        Class<T> cls = (Class<T>) obj.getClass();
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            Schema<T> schema = getSchema(cls);
+            ProtostuffIOUtil.writeTo(new ByteBufOutputStream(out), obj, schema, buffer);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
     /**
      *  反序列化方法，将字节数组反序列化成指定Class类型
      *  Objenesis来实例化对象，它是比 Java 反射更加强大。
@@ -66,4 +99,30 @@ public class ProtostuffSerializer extends Serializer {
             throw new IllegalStateException(e.getMessage(), e);
         }
     }
+
+    /**
+     *  反序列化方法，直接从ByteBuf中反序列化成指定Class类型
+     * @param in
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Object deserialize(ByteBuf in, Class<T> clazz) {
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            T message = objenesis.newInstance(clazz);
+            Schema<T> schema = getSchema(clazz);
+            if (in.hasArray()) {
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(), message, schema);
+            } else {
+                ProtostuffIOUtil.mergeFrom(new ByteBufInputStream(in), message, schema, buffer);
+            }
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            buffer.clear();
+        }
+    }
 }
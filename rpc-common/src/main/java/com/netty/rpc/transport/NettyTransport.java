@@ -0,0 +1,130 @@
+package com.netty.rpc.transport;
+
+import com.netty.rpc.config.RpcConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Netty传输层的选择和TCP参数：Linux上有native epoll时使用epoll（默认边缘触发），否则退回NIO。
+ * 客户端和服务端都通过这个类创建EventLoopGroup、确定Channel类型并设置连接参数，相关配置都在rpc.properties中。
+ */
+public final class NettyTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+    private static final boolean useEpoll = initEpoll();
+
+    private NettyTransport() {
+    }
+
+    public static boolean isEpoll() {
+        return useEpoll;
+    }
+
+    public static EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory("netty-rpc-" + name);
+        return useEpoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static Class<? extends ServerChannel> serverChannelClass() {
+        return useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends Channel> channelClass() {
+        return useEpoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public static int serverIoThreads() {
+        return RpcConfig.getInt(RpcConfig.SERVER_IO_THREADS, 0);
+    }
+
+    public static int clientIoThreads() {
+        return RpcConfig.getInt(RpcConfig.CLIENT_IO_THREADS, 4);
+    }
+
+    /**
+     * 服务端acceptor数量，只有epoll能通过SO_REUSEPORT多次绑定同一端口，NIO时固定为1
+     */
+    public static int serverAcceptors() {
+        int acceptors = Math.max(1, RpcConfig.getInt(RpcConfig.SERVER_ACCEPTORS, 1));
+        return useEpoll ? acceptors : 1;
+    }
+
+    /**
+     * 设置服务端的监听参数和连接参数
+     */
+    public static void configure(ServerBootstrap bootstrap) {
+        bootstrap.option(ChannelOption.SO_BACKLOG, RpcConfig.getInt(RpcConfig.TCP_BACKLOG, 128))
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.TCP_NODELAY, RpcConfig.getBoolean(RpcConfig.TCP_NODELAY, true))
+                .childOption(ChannelOption.SO_KEEPALIVE, RpcConfig.getBoolean(RpcConfig.TCP_KEEPALIVE, true));
+        int sndbuf = RpcConfig.getInt(RpcConfig.TCP_SNDBUF, 0);
+        if (sndbuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, sndbuf);
+        }
+        int rcvbuf = RpcConfig.getInt(RpcConfig.TCP_RCVBUF, 0);
+        if (rcvbuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, rcvbuf);
+        }
+        if (useEpoll) {
+            EpollMode mode = epollMode();
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            if (serverAcceptors() > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+    }
+
+    /**
+     * 设置客户端的连接参数
+     */
+    public static void configure(Bootstrap bootstrap) {
+        bootstrap.option(ChannelOption.TCP_NODELAY, RpcConfig.getBoolean(RpcConfig.TCP_NODELAY, true))
+                .option(ChannelOption.SO_KEEPALIVE, RpcConfig.getBoolean(RpcConfig.TCP_KEEPALIVE, true))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, RpcConfig.getInt(RpcConfig.CONNECT_TIMEOUT, 3000));
+        int sndbuf = RpcConfig.getInt(RpcConfig.TCP_SNDBUF, 0);
+        if (sndbuf > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, sndbuf);
+        }
+        int rcvbuf = RpcConfig.getInt(RpcConfig.TCP_RCVBUF, 0);
+        if (rcvbuf > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, rcvbuf);
+        }
+        if (useEpoll) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode());
+        }
+    }
+
+    private static EpollMode epollMode() {
+        return RpcConfig.getBoolean(RpcConfig.TRANSPORT_EPOLL_EDGE_TRIGGERED, true) ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+    }
+
+    private static boolean initEpoll() {
+        if (!RpcConfig.getBoolean(RpcConfig.TRANSPORT_EPOLL, true)) {
+            logger.info("Use NIO transport");
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            logger.info("Use native epoll transport");
+            return true;
+        }
+        logger.info("Native epoll transport is not available, fall back to NIO: {}", String.valueOf(Epoll.unavailabilityCause()));
+        return false;
+    }
+}
@@ -1,10 +1,11 @@
 package com.netty.rpc.util;
 
 /**
- *  生成服务端的serviceKey
+ *  生成服务端的serviceKey，以及服务方法的methodKey
  */
 public class ServiceUtil {
     public static final String SERVICE_CONCAT_TOKEN = "#";
+    public static final String METHOD_CONCAT_TOKEN = "/";
 
     public static String makeServiceKey(String interfaceName, String version) {
         String serviceKey = interfaceName;
@@ -13,4 +14,20 @@ public class ServiceUtil {
         }
         return serviceKey;
     }
+
+    /**
+     * methodKey = serviceKey/方法名(参数类型1,参数类型2)，握手时服务端按methodKey为每个方法分配数字id
+     */
+    public static String makeMethodKey(String serviceKey, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder methodKey = new StringBuilder(serviceKey).append(METHOD_CONCAT_TOKEN).append(methodName).append('(');
+        if (parameterTypes != null) {
+            for (int i = 0; i < parameterTypes.length; ++i) {
+                if (i > 0) {
+                    methodKey.append(',');
+                }
+                methodKey.append(parameterTypes[i].getName());
+            }
+        }
+        return methodKey.append(')').toString();
+    }
 }
@@ -0,0 +1,163 @@
+package com.netty.rpc.server.core;
+
+import com.netty.rpc.config.RpcConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应并发限制（参考Netflix concurrency-limits的Gradient）：根据请求的响应时间不断估计服务器能承受的并发数，
+ * 正在处理的请求数达到上限时直接拒绝，返回过载响应，不让请求在线程池队列里排队。
+ * 响应时间包括排队时间：没有排队时的响应时间minRtt是一批请求平均响应时间的最小值，最近一批的平均响应时间rtt代表当前情况，
+ * 梯度 = tolerance * minRtt / rtt（限制在0.5~1之间），新上限 = 上限 * 梯度 + sqrt(上限)。
+ * 没有排队时上限每次增加约sqrt(上限)，排队使响应时间超过minRtt的tolerance倍后按比例下降，最终稳定在刚好开始排队的位置；
+ * 正在处理的请求不到上限的一半时不增加上限，负载低时上限不会无限增长。
+ * 服务器共享的线程池拒绝请求时上限直接降低10%；服务或方法独占的线程池（舱壁）拒绝只说明那一个服务满了，不降低全局的上限。
+ * 每隔一段时间把上限降低10%，让排队减少，之后更低的响应时间会更新minRtt；降幅有限，不会让吞吐量突然下降。
+ * 降低上限后队列还在排空，这时的响应时间偏高，所以不清空minRtt重新测量（否则minRtt偏高，上限每次都会往上漂）。
+ * 服务本身变慢（例如下游变慢）时minRtt也要跟着变：如果两次降低之间每一批的响应时间都超过minRtt的tolerance倍，
+ * 说明一直没有恢复到原来的水平，这时才把minRtt换成这段时间里最低的响应时间。
+ * 在IO线程上直接执行的@NonBlocking方法不经过这个限制：它们不占用业务线程，也不会排队，响应时间不能反映线程池的负载。
+ */
+public class GradientLimiter {
+    private static final int SAMPLE_WINDOW = 16;  //每收集这么多个样本更新一次上限
+    private static final int PROBE_INTERVAL = 1000;  //每更新这么多次上限重新测量一次minRtt
+    private static final double TOLERANCE = 2.0;  //响应时间是minRtt的多少倍以内不降低上限
+    private static final double SMOOTHING = 0.2;
+    private static final double DECREASE = 0.9;  //线程池拒绝和重新测量minRtt时上限的降幅
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    //以下只在持有锁时访问
+    private double estimatedLimit;
+    private double minRtt;  //0表示还没有测量
+    private int probeCountdown = nextProbeInterval();
+    private double intervalMinRtt = Double.MAX_VALUE;  //两次降低上限之间一批样本平均响应时间的最小值
+    private boolean intervalSlow = true;  //两次降低上限之间每一批的响应时间是否都超过minRtt的tolerance倍
+    private long sampleSum;
+    private int sampleCount;
+    private int maxInFlight;  //这一批样本期间正在处理的请求数的最大值
+
+    public GradientLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * 按rpc.server.concurrency.limit创建，没有开启时返回null
+     */
+    public static GradientLimiter create() {
+        if (!"gradient".equalsIgnoreCase(RpcConfig.getString(RpcConfig.SERVER_CONCURRENCY_LIMIT, "none"))) {
+            return null;
+        }
+        return new GradientLimiter(RpcConfig.getInt(RpcConfig.SERVER_CONCURRENCY_LIMIT_INITIAL, 20),
+                RpcConfig.getInt(RpcConfig.SERVER_CONCURRENCY_LIMIT_MIN, 4),
+                RpcConfig.getInt(RpcConfig.SERVER_CONCURRENCY_LIMIT_MAX, 1000));
+    }
+
+    /**
+     * 请求开始处理前调用
+     * @return 正在处理的请求数已经达到上限时返回false，请求应该被拒绝
+     */
+    public boolean tryAcquire() {
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求处理完成
+     * @param rttNanos 从tryAcquire到处理完成的时间，包括排队时间
+     */
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            sampleSum += rttNanos;
+            maxInFlight = Math.max(maxInFlight, current);
+            if (++sampleCount >= SAMPLE_WINDOW) {
+                update((double) sampleSum / sampleCount, maxInFlight);
+                sampleSum = 0;
+                sampleCount = 0;
+                maxInFlight = 0;
+            }
+        }
+    }
+
+    /**
+     * 请求通过了并发限制，但被服务器共享的线程池拒绝，说明上限太高
+     */
+    public void drop() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * DECREASE);
+            limit = (int) estimatedLimit;
+        }
+    }
+
+    /**
+     * 请求通过了并发限制，但没有执行（例如被服务独占的线程池拒绝），只归还名额，不记录样本也不降低上限
+     */
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    private void update(double rtt, int maxInFlight) {
+        if (minRtt == 0 || rtt < minRtt) {
+            minRtt = rtt;
+        }
+        intervalMinRtt = Math.min(intervalMinRtt, rtt);
+        intervalSlow &= rtt > TOLERANCE * minRtt;
+        if (--probeCountdown <= 0) {
+            //降低上限让排队减少，保留minRtt，之后响应时间更低时自然会更新
+            probeCountdown = nextProbeInterval();
+            if (intervalSlow) {
+                minRtt = intervalMinRtt;  //服务本身变慢了
+            }
+            intervalMinRtt = Double.MAX_VALUE;
+            intervalSlow = true;
+            estimatedLimit = Math.max(minLimit, estimatedLimit * DECREASE);
+            limit = (int) estimatedLimit;
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / rtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        if (newLimit > estimatedLimit && maxInFlight < estimatedLimit / 2) {
+            return;  //负载低，响应时间不能说明上限是否还能增加
+        }
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * 加上随机抖动，多个服务器不会同时降低上限
+     */
+    private static int nextProbeInterval() {
+        return PROBE_INTERVAL + ThreadLocalRandom.current().nextInt(PROBE_INTERVAL / 2);
+    }
+
+    /**
+     * 当前的并发上限
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 正在处理的请求数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
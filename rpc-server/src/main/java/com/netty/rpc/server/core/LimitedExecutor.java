@@ -0,0 +1,51 @@
+package com.netty.rpc.server.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 限制同时执行的任务数的执行器，用在每个任务一个虚拟线程的执行器前面。
+ * 虚拟线程没有数量上限，不限制时过载的请求会全部同时执行，拖垮数据库等下游；
+ * 没有许可时不排队，直接抛出RejectedExecutionException，由RpcServerHandler返回过载响应
+ */
+public class LimitedExecutor implements Executor {
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int limit;
+
+    public LimitedExecutor(Executor executor, int limit) {
+        this.executor = executor;
+        this.limit = limit;
+        this.permits = new Semaphore(limit);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many concurrent requests, limit: " + limit);
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 正在执行的任务数
+     */
+    public int getActiveCount() {
+        return limit - permits.availablePermits();
+    }
+}
@@ -1,20 +1,19 @@
 package com.netty.rpc.server.core;
 
 import com.netty.rpc.server.registry.ServiceRegistry;
+import com.netty.rpc.transport.NettyTransport;
 import com.netty.rpc.util.ServiceUtil;
-import com.netty.rpc.util.ThreadPoolUtil;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executor;
 
 /**
  *   使用 Netty 可实现一个支持 NIO 的 RPC 服务器，需要使用 ServiceRegistry 注册服务地址
@@ -27,6 +26,8 @@ public class NettyServer extends Server {
     private String serverAddress;  //zookeeper客户端（rpc 服务器）的地址（包括端口号）
     private ServiceRegistry serviceRegistry;
     private Map<String, Object> serviceMap = new HashMap<>();  // 存放接口名与服务对象之间的映射关系
+    private ServiceMethodTable methodTable = new ServiceMethodTable();  // 服务方法表，addService时为每个方法生成invoker，握手时把方法id下发给客户端
+    private ServiceExecutors serviceExecutors = new ServiceExecutors();  // 服务和方法独占的线程池
 
     public NettyServer(String serverAddress, String registryAddress) {
         //zookeeper客户端（rpc 服务器）的地址  带端口号的
@@ -45,6 +46,8 @@ public class NettyServer extends Server {
         logger.info("Adding service, interface: {}, version: {}, bean：{}", interfaceName, version, serviceBean);
         String serviceKey = ServiceUtil.makeServiceKey(interfaceName, version);  //为每个接口生成一个serviceKey
         serviceMap.put(serviceKey, serviceBean);  //服务和服务的bean对象存在map中，用于对客户端的请求进行处理
+        List<ServiceMethod> serviceMethods = methodTable.register(serviceKey, interfaceName, serviceBean);  //为服务的每个方法分配id
+        serviceExecutors.assign(serviceKey, serviceBean, serviceMethods);  //按注解为服务和方法创建独占的线程池
     }
 
     /**
@@ -53,37 +56,44 @@ public class NettyServer extends Server {
     public void start() {
 
         thread = new Thread(new Runnable() {
-            //创建线程池
-            ThreadPoolExecutor threadPoolExecutor = ThreadPoolUtil.makeServerThreadPool(
-                    NettyServer.class.getSimpleName(), 16, 32);
+            //创建执行请求的线程池，rpc.server.executor = virtual时每个请求一个虚拟线程
+            Executor threadPoolExecutor = serviceExecutors.newServerExecutor(NettyServer.class.getSimpleName());
+            //自适应并发限制，rpc.server.concurrency.limit = gradient时开启
+            GradientLimiter limiter = GradientLimiter.create();
 
             @Override
             public void run() {
-                //NIO
-                EventLoopGroup bossGroup = new NioEventLoopGroup();
-                EventLoopGroup workerGroup = new NioEventLoopGroup();
+                //Linux上优先使用native epoll，不可用时退回NIO
+                int acceptors = NettyTransport.serverAcceptors();
+                EventLoopGroup bossGroup = NettyTransport.newEventLoopGroup(acceptors, "boss");
+                EventLoopGroup workerGroup = NettyTransport.newEventLoopGroup(NettyTransport.serverIoThreads(), "worker");
                 try {
                     //Netty 中 ServerBootstrap 是服务端启动引导类 , Bootstrap 类是客户端程序的启动引导类，
                     ServerBootstrap bootstrap = new ServerBootstrap();
-//                    new RpcServerInitializer(serviceMap, threadPoolExecutor)对通道进行一些初始化操作，
-                    bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
-                            .childHandler(new RpcServerInitializer(serviceMap, threadPoolExecutor))
-                            .option(ChannelOption.SO_BACKLOG, 128)
-                            .childOption(ChannelOption.SO_KEEPALIVE, true);
+//                    new RpcServerInitializer(methodTable, threadPoolExecutor)对通道进行一些初始化操作，
+                    bootstrap.group(bossGroup, workerGroup).channel(NettyTransport.serverChannelClass())
+                            .childHandler(new RpcServerInitializer(methodTable, threadPoolExecutor, limiter));
+                    NettyTransport.configure(bootstrap);  //TCP参数，acceptor多于1个时开启SO_REUSEPORT
 //                    serverAddress 这是rpc服务器的IP地址和端口号
                     String[] array = serverAddress.split(":");   //127.0.0.1:18866
                     String host = array[0];
                     int port = Integer.parseInt(array[1]);
 //                    bind该方法用于服务器端，用来设置占用的端口号
 //                    因为这个代码是封装的，不仅仅是绑定端口号，更是建立连接，server.accpet()；这个是阻塞的，所以是异步；
-                    ChannelFuture future = bootstrap.bind(host, port).sync();  //sync()等待异步操作执行完毕
+                    //SO_REUSEPORT时同一端口绑定多次，每个acceptor各自accept，由内核分配连接
+                    List<ChannelFuture> futures = new ArrayList<>(acceptors);
+                    for (int i = 0; i < acceptors; i++) {
+                        futures.add(bootstrap.bind(host, port).sync());  //sync()等待异步操作执行完毕
+                    }
 
                     if (serviceRegistry != null) {
                         //将服务集合注册到zookeeper服务器上  serviceMap：接口名和bean对象
                         serviceRegistry.registerService(host, port, serviceMap);   //向zookeeper注册服务地址
                     }
-                    logger.info("Server started on port {}", port);
-                    future.channel().closeFuture().sync();  //sync()等待异步操作执行完毕
+                    logger.info("Server started on port {}, epoll: {}, acceptors: {}", port, NettyTransport.isEpoll(), acceptors);
+                    for (ChannelFuture future : futures) {
+                        future.channel().closeFuture().sync();  //sync()等待异步操作执行完毕
+                    }
                 } catch (Exception e) {
                     if (e instanceof InterruptedException) {
                         logger.info("Rpc server remoting server stop");
@@ -95,6 +105,7 @@ public class NettyServer extends Server {
                         serviceRegistry.unregisterService();
                         workerGroup.shutdownGracefully();
                         bossGroup.shutdownGracefully();
+                        serviceExecutors.shutdown();
                     } catch (Exception ex) {
                         logger.error(ex.getMessage(), ex);
                     }
@@ -1,20 +1,26 @@
 package com.netty.rpc.server.core;
 
 import com.netty.rpc.codec.Beat;
+import com.netty.rpc.codec.RpcEncoder;
+import com.netty.rpc.codec.RpcHandshake;
 import com.netty.rpc.codec.RpcRequest;
 import com.netty.rpc.codec.RpcResponse;
+import com.netty.rpc.codec.WriteQueue;
+import com.netty.rpc.compress.Compressor;
+import com.netty.rpc.context.RpcContext;
 import com.netty.rpc.util.ServiceUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleStateEvent;
-import net.sf.cglib.reflect.FastClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * RPC Handler（RPC request processor）
@@ -22,17 +28,31 @@ import java.util.concurrent.ThreadPoolExecutor;
  *  自定义处理类  实现其userEventTriggered()方法，在出现超时事件时会被触发
  *
  */
-public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+public class RpcServerHandler extends SimpleChannelInboundHandler<Object> {
 
 //    LoggerFactory.getLogger可以在IDE控制台打印日志，便于开发，一般加在代码最上面
     private static final Logger logger = LoggerFactory.getLogger(RpcServerHandler.class);
 
-    private final Map<String, Object> handlerMap;  //key：服务端为接口生成的，根据接口名和版本生成，具体调用ServiceUtil类的方法
-    private final ThreadPoolExecutor serverHandlerPool;  //服务器的线程池
+    private final ServiceMethodTable methodTable;  //服务方法表，注册服务时生成，处理请求时只需查找一次
+    private final Executor serverHandlerPool;  //服务器共享的执行器，线程池或虚拟线程
+    private final GradientLimiter limiter;  //自适应并发限制，所有连接共用，null表示不限制
+    private volatile WriteQueue writeQueue;  //业务线程的响应合并写出
+    private boolean needsFlush;  //IO线程上直接写出了响应，读完这一批请求后flush一次；只在IO线程上访问
 
-    public RpcServerHandler(Map<String, Object> handlerMap, final ThreadPoolExecutor threadPoolExecutor) {
-        this.handlerMap = handlerMap;
+    public RpcServerHandler(ServiceMethodTable methodTable, final Executor threadPoolExecutor) {
+        this(methodTable, threadPoolExecutor, null);
+    }
+
+    public RpcServerHandler(ServiceMethodTable methodTable, final Executor threadPoolExecutor, GradientLimiter limiter) {
+        this.methodTable = methodTable;
         this.serverHandlerPool = threadPoolExecutor;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+        this.writeQueue = new WriteQueue(ctx.channel());
     }
 
     /**
@@ -40,90 +60,226 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
      * 可以很明显的看到，channelRead 是public 类型，可以被外部访问；而channelRead0是protected类型，只能被当前类及其子类访问。
      * 而且channelRead实际上也是调用channelRead0，只不过会先进行一个消息类型检查，判断当前message 是否需要传递到下一个handler。
      * @param ctx
-     * @param request
+     * @param msg
      */
     @Override
-    public void channelRead0(final ChannelHandlerContext ctx, final RpcRequest request) {
+    public void channelRead0(final ChannelHandlerContext ctx, final Object msg) {
         // filter beat ping
-        //说明是客户端发送的心跳
-        if (Beat.BEAT_ID.equalsIgnoreCase(request.getRequestId())) {
+        //说明是客户端发送的心跳，心跳和请求由帧头中的消息类型区分
+        if (msg instanceof Beat) {
             logger.info("Server read heartbeat ping");
             return;
         }
+        //连接握手：把所有服务方法的id下发给客户端
+        if (msg instanceof RpcHandshake) {
+            handshake(ctx, (RpcHandshake) msg);
+            return;
+        }
+        if (!(msg instanceof RpcRequest)) {
+            logger.warn("Server read unexpected message: {}", msg.getClass().getName());
+            return;
+        }
+        final RpcRequest request = (RpcRequest) msg;
+        //在IO线程上找到要调用的方法，才能知道交给哪个线程池
+        final ServiceMethod serviceMethod;
+        try {
+            serviceMethod = lookup(request);
+        } catch (Throwable t) {
+            logger.error("RPC Server handle request error", t);
+            writeError(ctx, request, t.toString(), false);
+            return;
+        }
+        //客户端的超时时间换算成本地的截止时间，0表示没有截止时间
+        final long deadlineNanos = request.getTimeout() > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.getTimeout()) : 0;
+        if (serviceMethod.isNonBlocking()) {
+            //非阻塞方法直接在IO线程上执行，响应也直接写出，不经过线程池和写队列；
+            //不占用业务线程也不排队，所以不受并发限制（见GradientLimiter），收到后立即执行，也不需要检查截止时间
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(request.getRequestId());
+            RpcContext.setDeadline(deadlineNanos);
+            try {
+                response.setResult(handle(serviceMethod, request));
+            } catch (Throwable t) {
+                response.setError(t.toString());
+                logger.error("RPC Server handle request error", t);
+            } finally {
+                RpcContext.clear();
+            }
+            writeInline(ctx, response);
+            return;
+        }
+        Executor executor = serviceMethod.getExecutor() != null ? serviceMethod.getExecutor() : serverHandlerPool;
+        //超过估计的并发上限时立即拒绝，不进入线程池排队
+        if (limiter != null && !limiter.tryAcquire()) {
+            logger.warn("Concurrency limit {} reached, reject request {}", limiter.getLimit(), request.getRequestId());
+            writeError(ctx, request, "Server overloaded: concurrency limit " + limiter.getLimit() + " reached", true);
+            return;
+        }
+        final long startNanos = System.nanoTime();
 
         //将请求任务提交给线程池进行处理
-        serverHandlerPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                logger.info("Receive request " + request.getRequestId());
-                RpcResponse response = new RpcResponse();
-                response.setRequestId(request.getRequestId());  //客户端定义为响应id，可读性会强一点
-                try {
-                    Object result = handle(request);  //处理请求
-                    response.setResult(result);
-                } catch (Throwable t) {
-                    response.setError(t.toString());
-                    logger.error("RPC Server handle request error", t);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        process(request, serviceMethod, deadlineNanos);
+                    } finally {
+                        if (limiter != null) {
+                            limiter.release(System.nanoTime() - startNanos);  //响应时间包括排队时间
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (limiter != null) {
+                if (executor == serverHandlerPool) {
+                    limiter.drop();
+                } else {
+                    limiter.cancel();  //只是这个服务的舱壁满了，不降低全局的上限
                 }
-                //ctx.writeAndFlush(response)返回是ChannelFuture对象，
+            }
+            //线程池和队列都满了，立即告诉客户端过载，不让请求在客户端等到超时
+            logger.warn("Server overloaded, reject request {} for {}", request.getRequestId(), serviceMethod.getMethodKey());
+            writeError(ctx, request, "Server overloaded: " + serviceMethod.getMethodKey(), true);
+        }
+    }
+
+    /**
+     * 在业务线程中处理请求并写出响应，在队列中等到超过截止时间的请求直接丢弃
+     */
+    private void process(final RpcRequest request, ServiceMethod serviceMethod, long deadlineNanos) {
+        logger.info("Receive request " + request.getRequestId());
+        if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+            //客户端已经超时，执行了结果也没人要，也不需要响应
+            logger.warn("Drop expired request {} for {}", request.getRequestId(), serviceMethod.getMethodKey());
+            return;
+        }
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(request.getRequestId());  //客户端定义为响应id，可读性会强一点
+        RpcContext.setDeadline(deadlineNanos);  //服务方法中可以查询剩余时间，再调用其他服务时继承剩余时间
+        try {
+            Object result = handle(serviceMethod, request);  //处理请求
+            response.setResult(result);
+        } catch (Throwable t) {
+            response.setError(t.toString());
+            logger.error("RPC Server handle request error", t);
+        } finally {
+            RpcContext.clear();
+        }
+        //writeQueue.write(response)返回是ChannelFuture对象，多个业务线程的响应由写队列合并写出，
 //                通过ChannelFuture我们可以添加Listener，那么在消息发送完成后会进行回调，我们再去处理业务逻辑。
-                ctx.writeAndFlush(response).addListener(new ChannelFutureListener() {
-                    @Override
-                    public void operationComplete(ChannelFuture channelFuture) throws Exception {
-                        logger.info("Send response for request " + request.getRequestId());
+        writeQueue.write(response).addListener(new ResponseListener(response));
+    }
+
+    /**
+     * 响应写出后的回调：编码失败（例如结果超过rpc.message.max.length）时改为发送一个错误响应，客户端不用等到超时
+     */
+    private final class ResponseListener implements ChannelFutureListener {
+        private final RpcResponse response;
+
+        ResponseListener(RpcResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture channelFuture) throws Exception {
+            if (channelFuture.isSuccess()) {
+                logger.info("Send response for request " + response.getRequestId());
 //                        ctx.close();  要关闭通道嘛？
-                    }
-                });
+                return;
             }
-        });
+            logger.error("Send response for request " + response.getRequestId() + " error", channelFuture.cause());
+            if (response.getResult() != null && channelFuture.channel().isActive()) {
+                //只替换带结果的响应，错误响应本身很小，再失败就不再重试
+                RpcResponse error = new RpcResponse();
+                error.setRequestId(response.getRequestId());
+                error.setError("Send response error: " + channelFuture.cause());
+                writeQueue.write(error);
+            }
+        }
     }
 
     /**
-     * 对客户端的请求进行处理，根据map找到对应的服务接口的全限定类名，再利用反射，去调用服务的特定的方法
-     * @param request
-     * @return
-     * @throws Throwable
+     * 直接写出错误响应，请求没有执行
+     * @param overloaded 是否因为过载被拒绝，客户端据此可以重试
      */
-    private Object handle(RpcRequest request) throws Throwable {
-        //获取客户端发送的请求消息：需要调用哪个类的，哪个方法，
-        String className = request.getClassName();
-        String version = request.getVersion();
-        String serviceKey = ServiceUtil.makeServiceKey(className, version);
-        Object serviceBean = handlerMap.get(serviceKey);  //获取到客户端真正想调用的服务端的哪个bean对象
-        if (serviceBean == null) {
-            logger.error("Can not find service implement with interface name: {} and version: {}", className, version);
-            return null;
+    private void writeError(ChannelHandlerContext ctx, RpcRequest request, String error, boolean overloaded) {
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(request.getRequestId());
+        response.setError(error);
+        response.setOverloaded(overloaded);
+        writeInline(ctx, response);
+    }
+
+    /**
+     * 在IO线程上写出响应，先不flush，等channelReadComplete时一起flush
+     */
+    private void writeInline(ChannelHandlerContext ctx, RpcResponse response) {
+        ctx.write(response).addListener(new ResponseListener(response));
+        needsFlush = true;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (needsFlush) {
+            needsFlush = false;
+            ctx.flush();
         }
+        super.channelReadComplete(ctx);
+    }
 
-        Class<?> serviceClass = serviceBean.getClass();  //获取class对象
-        String methodName = request.getMethodName();  //获取方法的名称
-        Class<?>[] parameterTypes = request.getParameterTypes();  //获取参数类型
-        Object[] parameters = request.getParameters();  //获取参数
+    /**
+     * 连接握手：把所有服务方法的id下发给客户端，同意客户端提出的压缩方式（支持的话），之后的响应按此压缩
+     */
+    private void handshake(ChannelHandlerContext ctx, RpcHandshake request) {
+        Compressor compressor = Compressor.get(request.getCompressType());
+        RpcHandshake handshake = new RpcHandshake();
+        handshake.setMethodIds(new HashMap<>(methodTable.getMethodIds()));
+        handshake.setCompressType(compressor != null ? compressor.getId() : Compressor.NONE);
+        ctx.writeAndFlush(handshake);
+        ctx.pipeline().get(RpcEncoder.class).setCompressor(compressor);
+        logger.info("Server send handshake with {} methods to {}, compress: {}", handshake.getMethodIds().size(),
+                ctx.channel().remoteAddress(), compressor != null ? compressor.getName() : "none");
+    }
 
-        logger.debug(serviceClass.getName());  //打印服务全限定类名
-        logger.debug(methodName);
-        for (int i = 0; i < parameterTypes.length; ++i) {
-            logger.debug(parameterTypes[i].getName());
+    /**
+     * 从服务方法表中找到要调用的方法
+     * @param request
+     * @return
+     */
+    private ServiceMethod lookup(RpcRequest request) {
+        ServiceMethod serviceMethod;
+        if (request.getMethodId() > 0) {
+            //客户端只发送了握手时分配的方法id
+            serviceMethod = methodTable.get(request.getMethodId());
+            if (serviceMethod == null) {
+                throw new IllegalArgumentException("Can not find service method with id: " + request.getMethodId());
+            }
+        } else {
+            //握手完成前的请求按接口名、版本、方法名和参数类型查找
+            String serviceKey = ServiceUtil.makeServiceKey(request.getClassName(), request.getVersion());
+            serviceMethod = methodTable.get(ServiceUtil.makeMethodKey(serviceKey, request.getMethodName(), request.getParameterTypes()));
+            if (serviceMethod == null) {
+                throw new IllegalArgumentException("Can not find service method: " + request.getClassName()
+                        + "." + request.getMethodName() + ", version: " + request.getVersion());
+            }
         }
-        for (int i = 0; i < parameters.length; ++i) {
-            logger.debug(parameters[i].toString());
+        return serviceMethod;
+    }
+
+    /**
+     * 对客户端的请求进行处理，调用注册时预先生成的invoker
+     * @param serviceMethod
+     * @param request
+     * @return
+     * @throws Throwable
+     */
+    private Object handle(ServiceMethod serviceMethod, RpcRequest request) throws Throwable {
+        if (logger.isDebugEnabled()) {
+            logger.debug(serviceMethod.getMethodKey());  //打印要调用的方法
         }
-        /**
-         * 两个方式jdk反射和cglib反射调用具体的方法  看谁的性能号，就用谁
-         */
-        // JDK reflect
-//        Method method = serviceClass.getMethod(methodName, parameterTypes);
-//        method.setAccessible(true);
-//        return method.invoke(serviceBean, parameters);
-
-        // Cglib reflect
-        FastClass serviceFastClass = FastClass.create(serviceClass);
-//        FastMethod serviceFastMethod = serviceFastClass.getMethod(methodName, parameterTypes);
-//        return serviceFastMethod.invoke(serviceBean, parameters);
-
-        // for higher-performance
-        int methodIndex = serviceFastClass.getIndex(methodName, parameterTypes);
-        return serviceFastClass.invoke(methodIndex, serviceBean, parameters);
+        return serviceMethod.invoke(request.getParameters());
     }
 
     @Override
@@ -11,20 +11,25 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.timeout.IdleStateHandler;
 
-import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
  *  NIO通道channel  初始化  用于在某个Channel注册到EventLoop后，对这个Channel执行一些初始化操作。
  */
 public class RpcServerInitializer extends ChannelInitializer<SocketChannel> {
-    private Map<String, Object> handlerMap;
-    private ThreadPoolExecutor threadPoolExecutor;
+    private ServiceMethodTable methodTable;
+    private Executor threadPoolExecutor;
+    private GradientLimiter limiter;  //所有连接共用，可以为null
 
-    public RpcServerInitializer(Map<String, Object> handlerMap, ThreadPoolExecutor threadPoolExecutor) {
-        this.handlerMap = handlerMap;
+    public RpcServerInitializer(ServiceMethodTable methodTable, Executor threadPoolExecutor) {
+        this(methodTable, threadPoolExecutor, null);
+    }
+
+    public RpcServerInitializer(ServiceMethodTable methodTable, Executor threadPoolExecutor, GradientLimiter limiter) {
+        this.methodTable = methodTable;
         this.threadPoolExecutor = threadPoolExecutor;
+        this.limiter = limiter;
     }
 
     @Override
@@ -38,12 +43,12 @@ public class RpcServerInitializer extends ChannelInitializer<SocketChannel> {
 
         cp.addLast(new IdleStateHandler(0, 0, Beat.BEAT_TIMEOUT, TimeUnit.SECONDS));
 //        LengthFieldBasedFrameDecoder类是Netty提供的用来解析带长度字段数据包的类，继承自ByteToMessageDecoder类。
-//        LengthFieldBasedFrameDecoder作用是防止粘包。
-        cp.addLast(new LengthFieldBasedFrameDecoder(65536, 0, 4, 0, 0));
+//        LengthFieldBasedFrameDecoder作用是防止粘包。拆出完整的帧后去掉长度字段，RpcDecoder直接从帧中解码
+        cp.addLast(new LengthFieldBasedFrameDecoder(RpcHeader.maxFrameLength(), 0, 4, 0, 4));  //单帧最大长度可配置，大消息由编码器分片
 //        在netty中，编码器encoder就是出站处理器，解码decoder就是入站处理器。
 //        因此，在使用编解码时，只需要将它们添加到ChannelPipeline中即可，但是要注意编解码添加的前后顺序。
-        cp.addLast(new RpcDecoder(RpcRequest.class, serializer));  // 将 RPC 请求进行解码（为了处理请求）
-        cp.addLast(new RpcEncoder(RpcResponse.class, serializer));  // 将 RPC 响应进行编码（为了返回响应）
-        cp.addLast(new RpcServerHandler(handlerMap, threadPoolExecutor));  // 处理 RPC 请求
+        cp.addLast(new RpcDecoder(serializer));  // 将 RPC 请求进行解码（为了处理请求）
+        cp.addLast(new RpcEncoder(serializer));  // 将 RPC 响应进行编码（为了返回响应）
+        cp.addLast(new RpcServerHandler(methodTable, threadPoolExecutor, limiter));  // 处理 RPC 请求
     }
 }
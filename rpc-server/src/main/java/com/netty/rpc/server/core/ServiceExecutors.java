@@ -0,0 +1,110 @@
+package com.netty.rpc.server.core;
+
+import com.netty.rpc.annotation.NettyRpcService;
+import com.netty.rpc.annotation.NonBlocking;
+import com.netty.rpc.annotation.RpcBulkhead;
+import com.netty.rpc.config.RpcConfig;
+import com.netty.rpc.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 服务器和服务执行请求的线程池。
+ * 服务器共享的执行器由rpc.server.executor决定：pool为固定大小的线程池，virtual为每个请求一个虚拟线程（限制并发数）。
+ * 服务实现类的@NettyRpcService(threads = n)为整个服务创建一个线程池（舱壁隔离），virtualThreads = true时改用虚拟线程，
+ * 这时threads是同时执行的请求数上限，queueSize不起作用，
+ * 方法上的@RpcBulkhead为单个方法创建线程池，@NonBlocking的方法直接在IO线程上执行，都没有配置的方法使用服务器共享的执行器。
+ * 执行器满时RpcServerHandler立即返回过载响应，一个慢服务只会占满自己的线程，不会影响同一服务器上的其他服务。
+ */
+public class ServiceExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceExecutors.class);
+    private static final int VIRTUAL_MAX_CONCURRENCY = Math.max(1, RpcConfig.getInt(RpcConfig.SERVER_VIRTUAL_MAX_CONCURRENCY, 10000));
+
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    /**
+     * 创建服务器共享的执行器
+     * @param name 线程名前缀
+     */
+    public synchronized Executor newServerExecutor(String name) {
+        if ("virtual".equalsIgnoreCase(RpcConfig.getString(RpcConfig.SERVER_EXECUTOR, "pool"))) {
+            Executor executor = newVirtualExecutor(name, VIRTUAL_MAX_CONCURRENCY);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        ExecutorService executor = ThreadPoolUtil.makeServerThreadPool(name, 16, 32);
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * 按服务实现类上的注解为服务方法设置执行器
+     * @param serviceKey
+     * @param serviceBean
+     * @param serviceMethods 服务注册的方法
+     */
+    public synchronized void assign(String serviceKey, Object serviceBean, List<ServiceMethod> serviceMethods) {
+        Class<?> beanClass = ClassUtils.getUserClass(serviceBean);
+        NettyRpcService nettyRpcService = AnnotationUtils.findAnnotation(beanClass, NettyRpcService.class);
+        Executor serviceExecutor = null;
+        if (nettyRpcService != null && nettyRpcService.virtualThreads()) {
+            int limit = nettyRpcService.threads() > 0 ? nettyRpcService.threads() : VIRTUAL_MAX_CONCURRENCY;
+            serviceExecutor = newVirtualExecutor(serviceKey, limit);
+        }
+        if (serviceExecutor == null && nettyRpcService != null && nettyRpcService.threads() > 0) {
+            serviceExecutor = newExecutor(serviceKey, nettyRpcService.threads(), nettyRpcService.queueSize());
+        }
+        for (ServiceMethod serviceMethod : serviceMethods) {
+            Method method = ClassUtils.getMostSpecificMethod(serviceMethod.getMethod(), beanClass);
+            if (AnnotationUtils.findAnnotation(method, NonBlocking.class) != null) {
+                logger.info("Service method {} runs on the io thread", serviceMethod.getMethodKey());
+                serviceMethod.setNonBlocking(true);
+                continue;
+            }
+            RpcBulkhead bulkhead = AnnotationUtils.findAnnotation(method, RpcBulkhead.class);
+            if (bulkhead != null && bulkhead.threads() > 0) {
+                serviceMethod.setExecutor(newExecutor(serviceKey + "-" + method.getName(), bulkhead.threads(), bulkhead.queueSize()));
+            } else if (serviceExecutor != null) {
+                serviceMethod.setExecutor(serviceExecutor);
+            }
+        }
+    }
+
+    private ExecutorService newExecutor(String name, int threads, int queueSize) {
+        logger.info("Create bulkhead executor for {}, threads: {}, queue size: {}", name, threads, queueSize);
+        ExecutorService executor = ThreadPoolUtil.makeServerThreadPool(name, threads, threads, queueSize);
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * 每个请求一个虚拟线程，同时执行的请求数不超过limit
+     * @return 不支持虚拟线程时返回null
+     */
+    private Executor newVirtualExecutor(String name, int limit) {
+        ExecutorService executor = ThreadPoolUtil.makeVirtualThreadExecutor(name);
+        if (executor == null) {
+            logger.warn("Virtual threads are not supported by this JVM, {} falls back to thread pool", name);
+            return null;
+        }
+        logger.info("Create virtual thread executor for {}, max concurrency: {}", name, limit);
+        executors.add(executor);
+        return new LimitedExecutor(executor, limit);
+    }
+
+    public synchronized void shutdown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        executors.clear();
+    }
+}
@@ -0,0 +1,86 @@
+package com.netty.rpc.server.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * 服务端暴露的一个服务方法，id在连接握手时下发给客户端。
+ * 注册时就把方法编译成已绑定服务对象的MethodHandle，类型统一为 (Object[])Object，
+ * 处理请求时直接调用，不再每次都做cglib FastClass查找和反射。
+ */
+public class ServiceMethod {
+    private final int id;
+    private final String methodKey;
+    private final Object serviceBean;
+    private final Method method;
+    private final MethodHandle invoker;
+    private Executor executor;  //执行这个方法的线程池，null表示服务器共享的线程池；服务启动前设置
+    private boolean nonBlocking;  //是否直接在IO线程上执行，服务启动前设置
+
+    public ServiceMethod(int id, String methodKey, Object serviceBean, Method method) {
+        this.id = id;
+        this.methodKey = methodKey;
+        this.serviceBean = serviceBean;
+        this.method = method;
+        this.invoker = createInvoker(serviceBean, method);
+    }
+
+    /**
+     * 调用服务方法，服务方法抛出的异常原样抛出
+     * @param parameters 客户端传来的参数
+     * @return 方法返回值，void方法返回null
+     * @throws Throwable
+     */
+    public Object invoke(Object[] parameters) throws Throwable {
+        return (Object) invoker.invokeExact(parameters);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getMethodKey() {
+        return methodKey;
+    }
+
+    public Object getServiceBean() {
+        return serviceBean;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    public void setNonBlocking(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    private static MethodHandle createInvoker(Object serviceBean, Method method) {
+        try {
+            //接口或实现类可能不是public的
+            method.setAccessible(true);
+            int parameterCount = method.getParameterTypes().length;
+            return MethodHandles.lookup().unreflect(method)
+                    .bindTo(serviceBean)
+                    .asType(MethodType.genericMethodType(parameterCount))  //参数和返回值统一为Object，基本类型自动装箱拆箱
+                    .asSpreader(Object[].class, parameterCount);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can not create invoker for method: " + method, e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.netty.rpc.server.core;
+
+import com.netty.rpc.util.ServiceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务方法表：addService时为服务接口的每个方法分配一个数字id（从1开始，0表示未分配），
+ * 连接握手时把 methodKey -> id 下发给客户端，之后请求只需携带方法id。
+ * 服务只在启动前注册，注册时整体替换快照，处理请求时的查找不需要加锁。
+ */
+public class ServiceMethodTable {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceMethodTable.class);
+
+    private volatile ServiceMethod[] methods = new ServiceMethod[1];  //下标即方法id，0号位置不用
+    private volatile Map<String, ServiceMethod> methodMap = Collections.emptyMap();  //key为methodKey
+    private volatile Map<String, Integer> methodIds = Collections.emptyMap();
+
+    /**
+     * 注册一个服务的所有方法
+     * @param serviceKey
+     * @param interfaceName
+     * @param serviceBean
+     * @return 注册的服务方法
+     */
+    public synchronized List<ServiceMethod> register(String serviceKey, String interfaceName, Object serviceBean) {
+        Class<?> serviceInterface = findInterface(interfaceName, serviceBean.getClass());
+        Method[] serviceMethods = serviceInterface != null ? serviceInterface.getMethods() : serviceBean.getClass().getMethods();
+
+        ServiceMethod[] newMethods = Arrays.copyOf(methods, methods.length + serviceMethods.length);
+        Map<String, ServiceMethod> newMethodMap = new HashMap<>(methodMap);
+        Map<String, Integer> newMethodIds = new HashMap<>(methodIds);
+        int id = methods.length;
+        List<ServiceMethod> registered = new ArrayList<>(serviceMethods.length);
+        for (Method method : serviceMethods) {
+            if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            String methodKey = ServiceUtil.makeMethodKey(serviceKey, method.getName(), method.getParameterTypes());
+            ServiceMethod serviceMethod = new ServiceMethod(id, methodKey, serviceBean, method);
+            newMethods[id] = serviceMethod;
+            newMethodMap.put(methodKey, serviceMethod);
+            newMethodIds.put(methodKey, id);
+            registered.add(serviceMethod);
+            logger.debug("Register service method, id: {}, key: {}", id, methodKey);
+            id++;
+        }
+        this.methods = Arrays.copyOf(newMethods, id);
+        this.methodMap = newMethodMap;
+        this.methodIds = newMethodIds;
+        return registered;
+    }
+
+    /**
+     * 按方法id查找，id无效时返回null
+     */
+    public ServiceMethod get(int methodId) {
+        ServiceMethod[] methods = this.methods;
+        return methodId > 0 && methodId < methods.length ? methods[methodId] : null;
+    }
+
+    public ServiceMethod get(String methodKey) {
+        return methodMap.get(methodKey);
+    }
+
+    /**
+     * 握手时下发给客户端的 methodKey -> id
+     */
+    public Map<String, Integer> getMethodIds() {
+        return methodIds;
+    }
+
+    /**
+     * 从服务实现类实现的接口中找到名称为interfaceName的接口，找不到时返回null，此时按实现类的public方法注册
+     */
+    private static Class<?> findInterface(String interfaceName, Class<?> beanClass) {
+        for (Class<?> serviceInterface : ClassUtils.getAllInterfacesForClassAsSet(beanClass)) {
+            if (serviceInterface.getName().equals(interfaceName)) {
+                return serviceInterface;
+            }
+        }
+        return null;
+    }
+}
@@ -1,6 +1,7 @@
 package com.app.test.service;
 
 import com.netty.rpc.annotation.NettyRpcService;
+import com.netty.rpc.annotation.NonBlocking;
 
 /**
  * 服务接口实现类
@@ -16,6 +17,8 @@ public class HelloServiceImpl implements HelloService {
 
     }
 
+    //只拼接字符串，直接在IO线程上执行
+    @NonBlocking
     @Override
     public String hello(String name) {
         return "Hello " + name;
@@ -7,15 +7,13 @@ import com.app.test.service.HelloServiceImpl;
 import com.netty.rpc.util.JsonUtil;
 import com.netty.rpc.util.SerializationUtil;
 
-import java.util.UUID;
-
 /**
  *
  */
 public class JsonTest {
     public static void main(String[] args) {
         RpcResponse response = new RpcResponse();
-        response.setRequestId(UUID.randomUUID().toString());
+        response.setRequestId(1L);
         response.setError("Error msg");
         System.out.println(response.getRequestId());
 
@@ -36,7 +34,7 @@ public class JsonTest {
         request.setMethodName(HelloServiceImpl.class.getDeclaredMethods()[0].getName());
         Person person = new Person("lu", "xiaoxun");
         request.setParameters(new Object[]{person});
-        request.setRequestId(UUID.randomUUID().toString());
+        request.setRequestId(1L);
         System.out.println(request.getRequestId());
 
         byte[] datas = JsonUtil.serialize(request);
@@ -0,0 +1,19 @@
+package com.netty.rpc.client.connect;
+
+import com.netty.rpc.protocol.RpcProtocol;
+
+/**
+ * 测试用：创建不建立连接的连接池，正常情况下连接池只由ConnectionManager创建
+ */
+public final class ConnectionPools {
+
+    private ConnectionPools() {
+    }
+
+    public static ConnectionPool create(String host, int port) {
+        RpcProtocol rpcProtocol = new RpcProtocol();
+        rpcProtocol.setHost(host);
+        rpcProtocol.setPort(port);
+        return new ConnectionPool(rpcProtocol, null);
+    }
+}
@@ -0,0 +1,192 @@
+package com.netty.rpc.client.handler;
+
+import com.netty.rpc.codec.RpcRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightTableTest {
+
+    private static RpcFuture future(long requestId) {
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(requestId);
+        return new RpcFuture(request);
+    }
+
+    @Test
+    public void collidingRequestsAreKeptApart() {
+        InFlightTable table = new InFlightTable(64);
+        RpcFuture first = future(3);
+        RpcFuture second = future(3 + 64);
+        RpcFuture third = future(3 + 128);
+        table.put(3, first);
+        table.put(3 + 64, second);
+        table.put(3 + 128, third);
+        assertEquals(3, table.size());
+        //少量冲突放在溢出map中，不扩容
+        assertEquals(64, table.capacity());
+
+        assertSame(second, table.remove(3 + 64));
+        assertNull(table.remove(3 + 64));
+        assertFalse(table.remove(3 + 128, future(3 + 128)));
+        assertTrue(table.remove(3 + 128, third));
+        assertSame(first, table.remove(3));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void growOnFrequentCollisions() {
+        InFlightTable table = new InFlightTable(64);
+        List<RpcFuture> futures = new ArrayList<>();
+        //0~31一直等待，64~95都和它们冲突；等待的请求数没有超过容量的3/4，但溢出的请求超过1/16时扩容
+        for (long id = 0; id < 32; id++) {
+            RpcFuture rpcFuture = future(id);
+            futures.add(rpcFuture);
+            table.put(id, rpcFuture);
+        }
+        for (long id = 64; id < 96; id++) {
+            RpcFuture rpcFuture = future(id);
+            futures.add(rpcFuture);
+            table.put(id, rpcFuture);
+        }
+        assertEquals(128, table.capacity());
+        for (RpcFuture rpcFuture : futures) {
+            assertSame(rpcFuture, table.remove(rpcFuture.getRequest().getRequestId()));
+        }
+        assertEquals(0, table.size());
+        assertEquals(64, table.capacity());
+    }
+
+    @Test
+    public void stuckRequestDoesNotForceGrowth() {
+        InFlightTable table = new InFlightTable(16);
+        RpcFuture stuck = future(0);
+        table.put(0, stuck);
+        //id一直增长，但同时等待的请求只有两个，不应该扩容，也不会因为跨度抛出异常
+        for (long id = 1; id < 100000; id++) {
+            RpcFuture rpcFuture = future(id);
+            table.put(id, rpcFuture);
+            assertSame(rpcFuture, table.remove(id));
+        }
+        assertEquals(16, table.capacity());
+        assertEquals(1, table.size());
+        assertSame(stuck, table.remove(0));
+    }
+
+    @Test
+    public void growOnOccupancyAndShrinkWhenDrained() {
+        InFlightTable table = new InFlightTable(16);
+        List<RpcFuture> futures = new ArrayList<>();
+        for (long id = 0; id < 1000; id++) {
+            RpcFuture rpcFuture = future(id);
+            futures.add(rpcFuture);
+            table.put(id, rpcFuture);
+        }
+        assertTrue(table.capacity() >= 1000);
+        //扩容后请求都能按id取出
+        for (long id = 0; id < 1000; id += 2) {
+            assertSame(futures.get((int) id), table.remove(id));
+        }
+        for (long id = 1; id < 1000; id += 2) {
+            assertSame(futures.get((int) id), table.remove(id));
+        }
+        assertEquals(0, table.size());
+        assertEquals(16, table.capacity());
+    }
+
+    @Test
+    public void removeAfterShrinkFindsCollidingRequests() {
+        InFlightTable table = new InFlightTable(4);
+        for (long id = 0; id < 64; id++) {
+            table.put(id, future(id));
+        }
+        int capacity = table.capacity();
+        //留下在缩容后的表中冲突的请求
+        List<Long> kept = new ArrayList<>();
+        for (long id = 0; id < 64; id++) {
+            if (id % 16 == 5) {
+                kept.add(id);
+            } else {
+                assertTrue(table.remove(id) != null);
+            }
+        }
+        assertTrue(table.capacity() < capacity);
+        for (long id : kept) {
+            assertEquals(id, table.remove(id).getRequest().getRequestId());
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void concurrentPutAndRemoveWhileResizing() throws Exception {
+        final InFlightTable table = new InFlightTable(2);
+        final AtomicLong idGenerator = new AtomicLong();
+        final AtomicInteger errors = new AtomicInteger();
+        final int threads = 8;
+        final int perThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        List<RpcFuture> mine = new ArrayList<>();
+                        for (int i = 0; i < perThread; i++) {
+                            long id = idGenerator.incrementAndGet();
+                            RpcFuture rpcFuture = future(id);
+                            table.put(id, rpcFuture);
+                            mine.add(rpcFuture);
+                            //攒一批再取出，让表反复扩容和缩容
+                            if (mine.size() == 64 || i == perThread - 1) {
+                                for (RpcFuture f : mine) {
+                                    if (table.remove(f.getRequest().getRequestId()) != f) {
+                                        errors.incrementAndGet();
+                                    }
+                                }
+                                mine.clear();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(0, table.size());
+        assertEquals(2, table.capacity());
+    }
+
+    @Test
+    public void removeAllReturnsSlotAndOverflowRequests() {
+        InFlightTable table = new InFlightTable(8);
+        Set<RpcFuture> expected = new HashSet<>();
+        for (long id : new long[]{1, 9, 17, 2}) {
+            RpcFuture rpcFuture = future(id);
+            expected.add(rpcFuture);
+            table.put(id, rpcFuture);
+        }
+        assertEquals(expected, new HashSet<>(table.removeAll()));
+        assertEquals(0, table.size());
+    }
+}
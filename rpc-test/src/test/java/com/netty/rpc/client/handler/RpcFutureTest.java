@@ -0,0 +1,95 @@
+package com.netty.rpc.client.handler;
+
+import com.netty.rpc.client.route.PeakEwma;
+import com.netty.rpc.codec.RpcRequest;
+import com.netty.rpc.codec.RpcResponse;
+import com.netty.rpc.exception.RpcTimeoutException;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertTrue;
+
+public class RpcFutureTest {
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    private static RpcFuture future(PeakEwma peakEwma) {
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(1);
+        request.setTimeout(TIMEOUT_MILLIS);
+        return new RpcFuture(request, peakEwma);
+    }
+
+    private static RpcResponse response(boolean overloaded) {
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(1);
+        if (overloaded) {
+            response.setOverloaded(true);
+            response.setError("overloaded");
+        } else {
+            response.setResult("ok");
+        }
+        return response;
+    }
+
+    @Test
+    public void successfulResponseRecordsRoundTrip() {
+        PeakEwma peakEwma = new PeakEwma();
+        future(peakEwma).done(response(false));
+        assertTrue(peakEwma.get() < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS) / 2);
+    }
+
+    @Test
+    public void failureRecordsBoundedPenalty() {
+        PeakEwma peakEwma = new PeakEwma();
+        peakEwma.observe(TimeUnit.MILLISECONDS.toNanos(20));
+        future(peakEwma).fail(new RpcTimeoutException("timed out"));
+        //当前估计的几倍，明显高于正常响应时间
+        assertTrue(peakEwma.get() > TimeUnit.MILLISECONDS.toNanos(20) * 2);
+        assertTrue(peakEwma.get() <= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS) / 10);
+    }
+
+    @Test
+    public void overloadedResponseRecordsBoundedPenalty() {
+        PeakEwma peakEwma = new PeakEwma();
+        peakEwma.observe(TimeUnit.MILLISECONDS.toNanos(20));
+        future(peakEwma).done(response(true));
+        assertTrue(peakEwma.get() > TimeUnit.MILLISECONDS.toNanos(20) * 2);
+        assertTrue(peakEwma.get() <= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS) / 10);
+    }
+
+    @Test
+    public void penaltyIsCappedBelowTimeout() {
+        PeakEwma peakEwma = new PeakEwma();
+        peakEwma.observe(TimeUnit.MILLISECONDS.toNanos(1000));
+        future(peakEwma).fail(new RpcTimeoutException("timed out"));
+        assertTrue(peakEwma.get() <= TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void rejectedCallbackIsFailed() {
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        RpcFuture rpcFuture = future(null);
+        rpcFuture.addCallback(new AsyncRPCCallback() {
+            @Override
+            public void success(Object result) {
+                failure.set(new IllegalStateException("callback should not run"));
+            }
+
+            @Override
+            public void fail(Exception e) {
+                failure.set(e);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        });
+        rpcFuture.done(response(false));
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+    }
+}
@@ -0,0 +1,35 @@
+package com.netty.rpc.client.proxy;
+
+import com.app.test.service.HelloService;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+
+public class ObjectProxyTest {
+
+    //和HelloService.hello(String)同名同签名，但不是同一个接口
+    public interface OtherService {
+        String hello(String name);
+    }
+
+    @Test
+    public void resolveInterfaceMethodReference() throws Exception {
+        ObjectProxy<HelloService, String> proxy = new ObjectProxy<>(HelloService.class, "1.0");
+        assertNotNull(proxy.resolveLambda((RpcFunction<HelloService, String>) HelloService::hello));
+        assertNotNull(proxy.resolveLambda((RpcFunction2<HelloService, String, Integer>) HelloService::hello));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectLambda() throws Throwable {
+        ObjectProxy<HelloService, String> proxy = new ObjectProxy<>(HelloService.class, "1.0");
+        proxy.call((RpcFunction<HelloService, String>) (service, name) -> service.hello(name), "World");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void rejectMethodReferenceOfAnotherInterface() throws Throwable {
+        ObjectProxy<HelloService, String> proxy = new ObjectProxy<>(HelloService.class, "1.0");
+        RpcFunction other = (RpcFunction<OtherService, String>) OtherService::hello;
+        proxy.call(other, "World");
+    }
+}
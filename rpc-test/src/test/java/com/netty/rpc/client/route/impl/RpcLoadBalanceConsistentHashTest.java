@@ -0,0 +1,78 @@
+package com.netty.rpc.client.route.impl;
+
+import com.netty.rpc.client.connect.ConnectionPool;
+import com.netty.rpc.client.connect.ConnectionPools;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RpcLoadBalanceConsistentHashTest {
+    private static final String SERVICE_KEY = "com.netty.rpc.test.service.HelloService#1.0";
+
+    private static ConnectionPool[] pools(int count) {
+        ConnectionPool[] pools = new ConnectionPool[count];
+        for (int i = 0; i < count; i++) {
+            pools[i] = ConnectionPools.create("127.0.0.1", 18866 + i);
+        }
+        return pools;
+    }
+
+    @Test
+    public void sameKeyRoutesToSameNodeRegardlessOfOrder() throws Exception {
+        RpcLoadBalanceConsistentHash loadBalance = new RpcLoadBalanceConsistentHash();
+        ConnectionPool[] providers = pools(4);
+        ConnectionPool[] reversed = {providers[3], providers[2], providers[1], providers[0]};
+        for (int user = 0; user < 100; user++) {
+            ConnectionPool first = loadBalance.route(SERVICE_KEY, providers, "user-" + user);
+            assertSame(first, loadBalance.route(SERVICE_KEY, providers, "user-" + user));
+            assertSame(first, loadBalance.route(SERVICE_KEY, reversed, "user-" + user));
+        }
+        //没有路由key时按服务key路由
+        assertSame(loadBalance.route(SERVICE_KEY, providers), loadBalance.route(SERVICE_KEY, providers, SERVICE_KEY));
+    }
+
+    @Test
+    public void keysAreSpreadOverNodes() throws Exception {
+        RpcLoadBalanceConsistentHash loadBalance = new RpcLoadBalanceConsistentHash();
+        ConnectionPool[] providers = pools(3);
+        Map<ConnectionPool, Integer> counts = new HashMap<>();
+        int keys = 30000;
+        for (int user = 0; user < keys; user++) {
+            ConnectionPool pool = loadBalance.route(SERVICE_KEY, providers, user);
+            Integer count = counts.get(pool);
+            counts.put(pool, count == null ? 1 : count + 1);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("unbalanced: " + counts.values(), count > keys / 3 * 0.8 && count < keys / 3 * 1.2);
+        }
+    }
+
+    @Test
+    public void removingNodeOnlyMovesItsKeys() throws Exception {
+        RpcLoadBalanceConsistentHash loadBalance = new RpcLoadBalanceConsistentHash();
+        ConnectionPool[] providers = pools(4);
+        ConnectionPool[] remaining = {providers[0], providers[1], providers[3]};
+        int moved = 0;
+        for (int user = 0; user < 10000; user++) {
+            ConnectionPool before = loadBalance.route(SERVICE_KEY, providers, user);
+            ConnectionPool after = loadBalance.route(SERVICE_KEY, remaining, user);
+            if (before != providers[2]) {
+                assertSame(before, after);
+            } else {
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+    }
+
+    @Test(expected = Exception.class)
+    public void rejectEmptyProviders() throws Exception {
+        new RpcLoadBalanceConsistentHash().route(SERVICE_KEY, new ConnectionPool[0], "user-1");
+    }
+}
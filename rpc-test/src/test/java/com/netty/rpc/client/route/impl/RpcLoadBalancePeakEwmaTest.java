@@ -0,0 +1,63 @@
+package com.netty.rpc.client.route.impl;
+
+import com.netty.rpc.client.connect.ConnectionPool;
+import com.netty.rpc.client.connect.ConnectionPools;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class RpcLoadBalancePeakEwmaTest {
+    private static final String SERVICE_KEY = "com.app.test.service.HelloService#1.0";
+
+    @Test
+    public void coldNodeDoesNotWinEveryComparison() throws Exception {
+        RpcLoadBalancePeakEwma loadBalance = new RpcLoadBalancePeakEwma();
+        ConnectionPool warm = ConnectionPools.create("127.0.0.1", 18866);
+        ConnectionPool cold = ConnectionPools.create("127.0.0.1", 18867);
+        warm.getPeakEwma().observe(TimeUnit.MILLISECONDS.toNanos(5));
+        ConnectionPool[] providers = {warm, cold};
+        int coldCount = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (loadBalance.route(SERVICE_KEY, providers) == cold) {
+                coldCount++;
+            }
+        }
+        //新节点按其他节点的中位数打分，和同样负载的节点机会相同
+        assertTrue("cold node chosen " + coldCount + " times", coldCount > 300 && coldCount < 700);
+    }
+
+    @Test
+    public void coldNodeLosesToFasterNode() throws Exception {
+        RpcLoadBalancePeakEwma loadBalance = new RpcLoadBalancePeakEwma();
+        ConnectionPool fast = ConnectionPools.create("127.0.0.1", 18866);
+        ConnectionPool slow = ConnectionPools.create("127.0.0.1", 18867);
+        ConnectionPool cold = ConnectionPools.create("127.0.0.1", 18868);
+        fast.getPeakEwma().observe(TimeUnit.MILLISECONDS.toNanos(1));
+        slow.getPeakEwma().observe(TimeUnit.MILLISECONDS.toNanos(500));
+        ConnectionPool[] providers = {fast, slow, cold};
+        int fastCount = 0;
+        int coldCount = 0;
+        for (int i = 0; i < 3000; i++) {
+            ConnectionPool chosen = loadBalance.route(SERVICE_KEY, providers);
+            if (chosen == fast) {
+                fastCount++;
+            } else if (chosen == cold) {
+                coldCount++;
+            }
+        }
+        //fast在每次比较中都胜出（约2/3），cold只在和slow比较时有一半机会（约1/6）
+        assertTrue("fast chosen " + fastCount + " times", fastCount > 1800);
+        assertTrue("cold chosen " + coldCount + " times", coldCount < 800);
+    }
+
+    @Test
+    public void allColdNodesAreComparable() throws Exception {
+        RpcLoadBalancePeakEwma loadBalance = new RpcLoadBalancePeakEwma();
+        ConnectionPool[] providers = {ConnectionPools.create("127.0.0.1", 18866), ConnectionPools.create("127.0.0.1", 18867)};
+        for (int i = 0; i < 100; i++) {
+            assertTrue(loadBalance.route(SERVICE_KEY, providers) != null);
+        }
+    }
+}
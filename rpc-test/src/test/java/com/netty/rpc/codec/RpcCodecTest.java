@@ -0,0 +1,238 @@
+package com.netty.rpc.codec;
+
+import com.app.test.service.HelloService;
+import com.app.test.service.HelloServiceImpl;
+import com.app.test.service.Person;
+import com.netty.rpc.compress.Compressor;
+import com.netty.rpc.config.RpcConfig;
+import com.netty.rpc.serializer.Serializer;
+import com.netty.rpc.serializer.kryo.KryoSerializer;
+import com.netty.rpc.server.core.ServiceMethod;
+import com.netty.rpc.server.core.ServiceMethodTable;
+import com.netty.rpc.util.ServiceUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * 编解码器测试：编码器写出的帧交给同样配置的解码器，检查帧格式、分片、压缩和对异常帧的处理
+ */
+public class RpcCodecTest {
+    private final Serializer serializer = new KryoSerializer();
+
+    @After
+    public void clearConfig() {
+        System.clearProperty(RpcConfig.MESSAGE_MAX_LENGTH);
+    }
+
+    private EmbeddedChannel encoder(Compressor compressor) {
+        RpcEncoder encoder = new RpcEncoder(serializer);
+        encoder.setCompressor(compressor);
+        return new EmbeddedChannel(encoder);
+    }
+
+    private EmbeddedChannel decoder() {
+        return new EmbeddedChannel(new LengthFieldBasedFrameDecoder(RpcHeader.maxFrameLength(), 0, 4, 0, 4),
+                new RpcDecoder(serializer));
+    }
+
+    /**
+     * 把encoder写出的所有ByteBuf交给decoder
+     */
+    private static void transfer(EmbeddedChannel encoder, EmbeddedChannel decoder) {
+        ByteBuf buf;
+        while ((buf = encoder.readOutbound()) != null) {
+            decoder.writeInbound(buf);
+        }
+    }
+
+    private static ByteBuf frame(byte type, int flags, long requestId, ByteBuf body) {
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(RpcHeader.HEADER_LENGTH + body.readableBytes());
+        frame.writeShort(RpcHeader.MAGIC);
+        frame.writeByte(RpcHeader.VERSION);
+        frame.writeByte(type);
+        frame.writeByte(flags);
+        frame.writeByte(new KryoSerializer().getId());
+        frame.writeLong(requestId);
+        frame.writeBytes(body);
+        body.release();
+        return frame;
+    }
+
+    @Test
+    public void rejectOriginalLengthBeyondCompressionRatio() {
+        EmbeddedChannel decoder = decoder();
+        ByteBuf body = Unpooled.buffer();
+        body.writeInt(10 * 1024 * 1024);  //声称10MB，实际只有16字节压缩数据
+        body.writeZero(16);
+        decoder.writeInbound(frame(RpcHeader.TYPE_REQUEST, Compressor.LZ4, 1, body));
+        //只让这一个请求失败，连接保持
+        Assert.assertNull(decoder.readInbound());
+        RpcResponse response = decoder.readOutbound();
+        Assert.assertEquals(1, response.getRequestId());
+        Assert.assertTrue(response.getError().contains("invalid original length"));
+        Assert.assertTrue(decoder.isActive());
+    }
+
+    @Test
+    public void rejectOversizedMessageOnSend() {
+        System.setProperty(RpcConfig.MESSAGE_MAX_LENGTH, "4096");
+        EmbeddedChannel encoder = encoder(null);
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(7);
+        request.setParameters(new Object[]{new byte[8192]});
+        try {
+            encoder.writeOutbound(request);
+            Assert.fail("Oversized message should fail the write");
+        } catch (EncoderException e) {
+            Assert.assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+        Assert.assertNull("Nothing should be written", encoder.readOutbound());
+        Assert.assertTrue(encoder.isActive());
+    }
+
+    @Test
+    public void compressedRoundTrip() {
+        for (Compressor compressor : new Compressor[]{Compressor.get(Compressor.LZ4), Compressor.get(Compressor.DEFLATE)}) {
+            EmbeddedChannel encoder = encoder(compressor);
+            EmbeddedChannel decoder = decoder();
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(42);
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                result.append("compressible ");
+            }
+            response.setResult(result.toString());
+            Assert.assertTrue(encoder.writeOutbound(response));
+            transfer(encoder, decoder);
+            RpcResponse decoded = decoder.readInbound();
+            Assert.assertEquals(compressor.getName(), 42, decoded.getRequestId());
+            Assert.assertEquals(compressor.getName(), result.toString(), decoded.getResult());
+        }
+    }
+
+    @Test
+    public void rejectMalformedLz4Data() {
+        EmbeddedChannel decoder = decoder();
+        ByteBuf body = Unpooled.buffer();
+        body.writeInt(4000);
+        for (int i = 0; i < 64; i++) {
+            body.writeByte(0xF0 | i);  //字面量长度和匹配偏移都是乱的
+        }
+        decoder.writeInbound(frame(RpcHeader.TYPE_RESPONSE, Compressor.LZ4, 2, body));
+        RpcResponse response = decoder.readInbound();
+        Assert.assertEquals(2, response.getRequestId());
+        Assert.assertTrue(response.getError().contains("decompress error"));
+        Assert.assertTrue(decoder.isActive());
+    }
+
+    @Test
+    public void chunkedRoundTrip() {
+        EmbeddedChannel encoder = encoder(null);
+        EmbeddedChannel decoder = decoder();
+        byte[] payload = new byte[RpcHeader.maxFrameLength() * 3 + 17];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(Long.MAX_VALUE - 1);
+        request.setMethodId(3);
+        request.setParameters(new Object[]{payload});
+        encoder.writeOutbound(request);
+        int frames = 0;
+        ByteBuf buf;
+        while ((buf = encoder.readOutbound()) != null) {
+            if (buf.readableBytes() == RpcHeader.LENGTH_FIELD_LENGTH + RpcHeader.HEADER_LENGTH) {
+                frames++;  //每一帧先写出一个单独的帧头
+            }
+            decoder.writeInbound(buf);
+        }
+        Assert.assertEquals(4, frames);
+        RpcRequest decoded = decoder.readInbound();
+        Assert.assertEquals(Long.MAX_VALUE - 1, decoded.getRequestId());
+        Assert.assertEquals(3, decoded.getMethodId());
+        Assert.assertArrayEquals(payload, (byte[]) decoded.getParameters()[0]);
+        Assert.assertNull(decoder.readInbound());
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectBadMagic() {
+        ByteBuf frame = frame(RpcHeader.TYPE_REQUEST, 0, 1, Unpooled.buffer().writeZero(4));
+        frame.setShort(RpcHeader.LENGTH_FIELD_LENGTH, 0x1234);
+        decoder().writeInbound(frame);
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectUnknownMessageType() {
+        decoder().writeInbound(frame((byte) 9, 0, 1, Unpooled.buffer().writeZero(4)));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void rejectUnsupportedCompressType() {
+        decoder().writeInbound(frame(RpcHeader.TYPE_RESPONSE, 3, 1, Unpooled.buffer().writeZero(4)));
+    }
+
+    @Test
+    public void answerUndecodableRequestWithError() {
+        EmbeddedChannel decoder = decoder();
+        ByteBuf frame = frame(RpcHeader.TYPE_REQUEST, 0, 55, Unpooled.buffer().writeZero(4));
+        frame.setByte(RpcHeader.LENGTH_FIELD_LENGTH + 5, 99);  //不支持的序列化方式
+        decoder.writeInbound(frame);
+        Assert.assertNull(decoder.readInbound());
+        RpcResponse response = decoder.readOutbound();
+        Assert.assertEquals(55, response.getRequestId());
+        Assert.assertTrue(response.getError().contains("unsupported serializer"));
+    }
+
+    @Test
+    public void failUndecodableResponse() {
+        EmbeddedChannel decoder = decoder();
+        ByteBuf body = Unpooled.buffer();
+        body.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        decoder.writeInbound(frame(RpcHeader.TYPE_RESPONSE, 0, 66, body));
+        RpcResponse response = decoder.readInbound();
+        Assert.assertEquals(66, response.getRequestId());
+        Assert.assertTrue(response.isError());
+    }
+
+    @Test
+    public void handshakeMethodIdsMatchClientKeys() throws Throwable {
+        ServiceMethodTable table = new ServiceMethodTable();
+        String serviceKey = ServiceUtil.makeServiceKey(HelloService.class.getName(), "1.0");
+        table.register(serviceKey, HelloService.class.getName(), new HelloServiceImpl());
+        RpcHandshake handshake = new RpcHandshake();
+        handshake.setMethodIds(new java.util.HashMap<>(table.getMethodIds()));
+        handshake.setCompressType(Compressor.LZ4);
+
+        EmbeddedChannel encoder = encoder(Compressor.get(Compressor.LZ4));
+        EmbeddedChannel decoder = decoder();
+        encoder.writeOutbound(handshake);
+        transfer(encoder, decoder);
+        RpcHandshake decoded = decoder.readInbound();
+        Assert.assertEquals(Compressor.LZ4, decoded.getCompressType());
+
+        //客户端用接口方法算出的key查到的id，在服务端必须对应同一个方法
+        Map<String, Integer> methodIds = decoded.getMethodIds();
+        Assert.assertEquals(3, methodIds.size());
+        for (Method method : HelloService.class.getMethods()) {
+            Integer id = methodIds.get(ServiceUtil.makeMethodKey(serviceKey, method.getName(), method.getParameterTypes()));
+            Assert.assertNotNull(method.toString(), id);
+            ServiceMethod serviceMethod = table.get(id);
+            Assert.assertEquals(method, serviceMethod.getMethod());
+        }
+        Method byPerson = HelloService.class.getMethod("hello", Person.class);
+        int id = methodIds.get(ServiceUtil.makeMethodKey(serviceKey, "hello", byPerson.getParameterTypes()));
+        Assert.assertEquals("Hello a b", table.get(id).invoke(new Object[]{new Person("a", "b")}));
+    }
+}
@@ -0,0 +1,99 @@
+package com.netty.rpc.codec;
+
+import com.netty.rpc.config.RpcConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteQueueTest {
+
+    @After
+    public void clearConfig() {
+        System.clearProperty(RpcConfig.WRITE_BATCH_SIZE);
+        System.clearProperty(RpcConfig.WRITE_FLUSH_DELAY);
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        int flushes;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes++;
+            super.flush(ctx);
+        }
+    }
+
+    @Test
+    public void coalesceWritesIntoBatches() {
+        System.setProperty(RpcConfig.WRITE_BATCH_SIZE, "4");
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter);
+        WriteQueue writeQueue = new WriteQueue(channel);
+        for (int i = 0; i < 10; i++) {
+            writeQueue.write(i);
+        }
+        assertNull(channel.readOutbound());
+
+        channel.runPendingTasks();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) (Integer) channel.readOutbound());
+        }
+        assertEquals(3, counter.flushes);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void waitForDelayUntilBatchIsFull() {
+        System.setProperty(RpcConfig.WRITE_BATCH_SIZE, "4");
+        System.setProperty(RpcConfig.WRITE_FLUSH_DELAY, String.valueOf(TimeUnit.SECONDS.toMicros(60)));
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter);
+        WriteQueue writeQueue = new WriteQueue(channel);
+        for (int i = 0; i < 3; i++) {
+            writeQueue.write(i);
+        }
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(0, counter.flushes);
+
+        writeQueue.write(3);
+        channel.runPendingTasks();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) (Integer) channel.readOutbound());
+        }
+        assertEquals(1, counter.flushes);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void failWritesWhenEventLoopRejects() throws Exception {
+        DefaultEventLoop eventLoop = new DefaultEventLoop();
+        LocalChannel channel = new LocalChannel();
+        eventLoop.register(channel).sync();
+        eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+
+        WriteQueue writeQueue = new WriteQueue(channel);
+        ChannelFuture first = writeQueue.write("a");
+        assertTrue(first.isDone());
+        assertFalse(first.isSuccess());
+        assertTrue(first.cause() instanceof RejectedExecutionException);
+
+        //提交失败后状态已重置，后续的写同样立即失败而不是一直挂起
+        ChannelFuture second = writeQueue.write("b");
+        assertTrue(second.isDone());
+        assertTrue(second.cause() instanceof RejectedExecutionException);
+    }
+}
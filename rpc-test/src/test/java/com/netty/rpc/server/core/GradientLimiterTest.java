@@ -0,0 +1,156 @@
+package com.netty.rpc.server.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GradientLimiterTest {
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 占满上限后全部以rtt完成，返回这一轮处理的请求数
+     */
+    private static int fullRound(GradientLimiter limiter, long rttNanos) {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(rttNanos);
+        }
+        return acquired;
+    }
+
+    @Test
+    public void acquireUpToLimitAndRelease() {
+        GradientLimiter limiter = new GradientLimiter(10, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(10, limiter.getInFlight());
+
+        limiter.release(RTT);
+        assertEquals(9, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void dropShrinksLimitButNotBelowMin() {
+        GradientLimiter limiter = new GradientLimiter(100, 50, 1000);
+        assertTrue(limiter.tryAcquire());
+        limiter.drop();
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(90, limiter.getLimit());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.drop();
+        }
+        assertEquals(50, limiter.getLimit());
+    }
+
+    @Test
+    public void cancelKeepsLimit() {
+        GradientLimiter limiter = new GradientLimiter(100, 1, 1000);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.cancel();
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void growWithoutQueueingAndShrinkWhenQueueing() {
+        GradientLimiter limiter = new GradientLimiter(20, 1, 1000);
+        for (int i = 0; i < 20; i++) {
+            fullRound(limiter, RTT);
+        }
+        int grown = limiter.getLimit();
+        assertTrue("limit " + grown, grown > 20);
+
+        //排队使响应时间远超minRtt的tolerance倍
+        for (int i = 0; i < 20; i++) {
+            fullRound(limiter, RTT * 10);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < grown);
+    }
+
+    @Test
+    public void lowLoadDoesNotRaiseLimit() {
+        GradientLimiter limiter = new GradientLimiter(100, 1, 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(RTT);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void probeDecreaseIsBounded() {
+        GradientLimiter limiter = new GradientLimiter(200, 1, 200);
+        int previous = limiter.getLimit();
+        int decreases = 0;
+        int samples = 0;
+        //至少经过一次重新测量minRtt（每1000~1500次更新一次，每次更新16个样本）
+        while (samples < 16 * 1600) {
+            samples += fullRound(limiter, RTT);
+            int limit = limiter.getLimit();
+            if (limit < previous) {
+                decreases++;
+                assertTrue("limit dropped from " + previous + " to " + limit, limit >= previous * 0.9 - 1);
+            }
+            previous = limit;
+        }
+        assertTrue(decreases > 0);
+    }
+
+    /**
+     * 服务能同时处理capacity个请求，更多的请求排队，响应时间按排队比例增加
+     */
+    private static int queueingRound(GradientLimiter limiter, int capacity) {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        long rtt = RTT * Math.max(capacity, acquired) / capacity;
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(rtt);
+        }
+        return acquired;
+    }
+
+    @Test
+    public void probeDoesNotDriftLimitUp() {
+        GradientLimiter limiter = new GradientLimiter(20, 1, 10000);
+        int capacity = 50;
+        int samples = 0;
+        int highest = 0;
+        //经过多次重新测量minRtt，上限应该一直停在允许的排队范围附近（tolerance倍），不会逐次升高
+        while (samples < 16 * 1500 * 6) {
+            samples += queueingRound(limiter, capacity);
+            if (samples > 16 * 200) {
+                highest = Math.max(highest, limiter.getLimit());
+            }
+        }
+        assertTrue("limit reached " + highest, highest < capacity * 3);
+    }
+
+    @Test
+    public void reanchorAfterLastingSlowdown() {
+        GradientLimiter limiter = new GradientLimiter(100, 1, 200);
+        for (int i = 0; i < 50; i++) {
+            fullRound(limiter, RTT);
+        }
+        int samples = 0;
+        //服务本身变慢10倍（和并发数无关），上限先降低，重新测量minRtt后恢复
+        while (samples < 16 * 1600 * 2) {
+            samples += fullRound(limiter, RTT * 10);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 100);
+    }
+}